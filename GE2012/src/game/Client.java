@@ -1,31 +1,46 @@
 package game;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 public class Client {
 	public Socket sock;
 	public String name;
-	public PrintWriter output;
-	public BufferedReader input;
+	public MessageChannel channel;
 	public boolean DQd;
 	public boolean busy;
 	public int moveLimit;
-	public double gameTimeRemaining, gameTimeLimit;
+	public double gameTimeLimit;
 	public int finalPlayLimit;
 	public int maxWarnings;
 	public boolean deterministic;
+	public boolean compact;			// client wants compact boards
+	public boolean binary;			// client wants binary frames
+	public NioServer.Connection conn;	// in place of sock and channel on the non-blocking server
+	public int sessions = 1;		// games it may play at once
+	private int offered = 1;		// games it said it could play at once
+	private final ConcurrentHashMap<Integer, Session> open = new ConcurrentHashMap<Integer, Session>();
+	private volatile boolean closed;
 	public static final boolean DUMP = false;
 	public Client(ServerSocket mainSocket, int initTimeLimit,
 					int pLimit, int fLimit,
 					int gLimit, int nWarnings) throws Exception
 	{
-		sock = mainSocket.accept();
-		output = new PrintWriter(sock.getOutputStream(), true);
-		input = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+		this(mainSocket.accept(), initTimeLimit, pLimit, fLimit, gLimit, nWarnings);
+	}
+	/**
+	 * Runs the handshake on a socket already accepted, so several can go
+	 * at once.
+	 */
+	public Client(Socket sock, int initTimeLimit,
+					int pLimit, int fLimit,
+					int gLimit, int nWarnings) throws Exception
+	{
+		this.sock = sock;
+		channel = new MessageChannel(sock);
 		name = hardLimitResponse(initTimeLimit);
 		if (name == null) {
 			DQd = true;
@@ -39,17 +54,132 @@ public class Client {
 			playerType = "DETERMINISTIC";
 			return;
 		}
-		deterministic = (playerType.equals("DETERMINISTIC"));
+		playerType(playerType);
+		if (binary) {
+			channel.useBinary();
+		}
 		maxWarnings = nWarnings;
 		moveLimit = pLimit;
 		finalPlayLimit = fLimit;
 		gameTimeLimit = gLimit;
 		busy = false;
 	}
+	/**
+	 * For the non-blocking server, which does the handshake itself (see
+	 * NioServer.join) and sets conn.
+	 */
+	Client(int pLimit, int fLimit, int gLimit, int nWarnings)
+	{
+		maxWarnings = nWarnings;
+		moveLimit = pLimit;
+		finalPlayLimit = fLimit;
+		gameTimeLimit = gLimit;
+	}
+	/**
+	 * Takes in the DETERMINISTIC/STOCHASTIC line and the options after it.
+	 */
+	void playerType(String playerType)
+	{
+		StringTokenizer toks = new StringTokenizer(playerType);
+		deterministic = toks.hasMoreTokens() && toks.nextToken().equals("DETERMINISTIC");
+		while (toks.hasMoreTokens()) {
+			String tok = toks.nextToken();
+			if (tok.equals(GamePlayer.COMPACT)) {
+				compact = true;
+			} else if (tok.equals(GamePlayer.BINARY)) {
+				binary = true;
+			} else if (tok.equals(GamePlayer.SESSIONS) && toks.hasMoreTokens()) {
+				try {
+					offered = Math.max(1, Integer.parseInt(toks.nextToken()));
+				}
+				catch (NumberFormatException e) {
+				}
+			}
+		}
+	}
+	/**
+	 * Lets the client play as many games at once as it offered, up to
+	 * most. If that is more than one its messages are tagged from now on
+	 * (see Session), and a task of its own reads its answers.
+	 * @param readers Runs that task; the games' own executor, so that it
+	 *   is a virtual thread when they are
+	 */
+	public void allowSessions(int most, Executor readers)
+	{
+		sessions = Math.max(1, Math.min(offered, most));
+		if (sessions == 1 || DQd)
+			return;
+		readers.execute(new Runnable() {
+			public void run()
+			{ route(); }
+		});
+	}
+	/**
+	 * @return A game's hold on this client, taking answers from now on
+	 */
+	public Session open(int id)
+	{
+		Session s = new Session(this, id, sessions > 1);
+		if (sessions > 1) {
+			open.put(id, s);
+			if (closed)
+				s.in.add(Session.EOF);
+		}
+		return s;
+	}
+	void close(Session s)
+	{ open.remove(s.id); }
+	/**
+	 * Hands each tagged answer to its session, until the connection goes.
+	 */
+	private void route()
+	{
+		try {
+			sock.setSoTimeout(0);
+			Object field;
+			while ((field = channel.readField()) != null) {
+				StringTokenizer toks = new StringTokenizer(field.toString());
+				if (!toks.hasMoreTokens() || !toks.nextToken().equals(Session.TAG) || toks.countTokens() != 2) {
+					System.err.printf("untagged answer from %s: %s%n", name, field);
+					continue;
+				}
+				Session s = open.get(Integer.valueOf(toks.nextToken()));
+				int count = Integer.parseInt(toks.nextToken());
+				for (int i=0; i<count && field != null; i++) {
+					field = channel.readField();
+					// a session already closed, say by a timeout, lets its answers drop
+					if (s != null && field != null)
+						s.in.add(field);
+				}
+			}
+		}
+		catch (Exception e) {
+			System.err.printf("lost %s %s%n", name, e.toString());
+			System.err.flush();
+		}
+		closed = true;
+		for (Session s : open.values()) {
+			s.in.add(Session.EOF);
+		}
+	}
+	void send(String... lines)
+	{
+		if (conn != null) {
+			conn.send(lines);
+			return;
+		}
+		try {
+			channel.send(lines);
+		}
+		catch (Exception e) {
+			System.err.printf("send failed %s %s%n", name, e.toString());
+			System.err.flush();
+		}
+	}
 	public void simpleMsg(String s)
 	{
 		if (DUMP) System.err.println("SDUMP1/1: " + s);
-		output.println(s);
+		send(s);
 		if (DUMP) System.err.println("EDUMP");
 	}
 	public void simpleMsg(String s1, String s2)
@@ -58,8 +188,7 @@ public class Client {
 			System.err.println("DUMP1/2: " + s1);
 			System.err.println("DUMP2/2: " + s2);
 		}
-		output.println(s1);
-		output.println(s2);
+		send(s1, s2);
 		if (DUMP) System.err.println("EDUMP");
 	}
 	public void simpleMsg(String s1, String s2, String s3)
@@ -69,9 +198,7 @@ public class Client {
 			System.err.println("DUMP2/3: " + s2);
 			System.err.println("DUMP3/3: " + s3);
 		}
-		output.println(s1);
-		output.println(s2);
-		output.println(s3);
+		send(s1, s2, s3);
 		if (DUMP) System.err.println("EDUMP");
 	}
 	public String hardLimitResponse(int seconds)
@@ -79,7 +206,7 @@ public class Client {
 		String name = null;
 		try {
 			sock.setSoTimeout(seconds * 1000);
-			name = input.readLine();
+			name = channel.readLine();
 		}
 		catch (Exception e) {
 			System.err.printf("init timeout %s %d%n", e.toString(), seconds);
@@ -95,15 +222,15 @@ public class Client {
 			if (DUMP) {
 				System.err.println("Timed response: " + seconds);
 			}
-			String mvStr = input.readLine();
+			if (!channel.readMove(move)) {
+				throw new java.io.EOFException();
+			}
 			if (DUMP) {
-				System.err.println("RESPONSE: " + mvStr);
+				System.err.println("RESPONSE: " + move);
 			}
 			long diff = System.currentTimeMillis() - start;
 			
-			output.println("TIME");
-			output.printf("%.3f%n", diff/1000.0);
-			move.parseMove(mvStr);
+			channel.send("TIME", String.format("%.3f", diff/1000.0));
 
 			double elapsedTime = diff / 1000.0;
 			return elapsedTime;
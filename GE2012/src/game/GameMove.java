@@ -12,6 +12,21 @@ public abstract class GameMove implements Cloneable {
 	 * @param s String to be parsed.
 	 */
 	public abstract void parseMove(String s);
+	/**
+	 * Numeric form of the move, used by binary transports.
+	 * Default behavior is to have none.
+	 * @return A non-negative code, or -1 if the move has no numeric form
+	 */
+	public int toCode()
+	{ return -1; }
+	/**
+	 * Sets the move from a code produced by toCode. A peer may send a
+	 * number whatever this move's toCode says, so the default reads it
+	 * as text, the way parseMove would.
+	 * @param code Code to be parsed.
+	 */
+	public void parseCode(int code)
+	{ parseMove(Integer.toString(code)); }
 	/**
 	 * Clones a GameMove
 	 * @return Returns a clone of the GameMove.
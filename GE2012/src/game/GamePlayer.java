@@ -1,12 +1,69 @@
 package game;
 import java.io.*;
 import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 public abstract class GamePlayer {
 	protected GameState gameState;
 	protected GameState.Who side;
 	protected boolean deterministic;
 	protected String nickname;
+	/**
+	 * Ask the server for compact boards (see GameState.compactMsgString).
+	 * The request is made on the DETERMINISTIC/STOCHASTIC line, and
+	 * parseMsgString must accept both formats, since an older server
+	 * keeps sending full boards. Such a server compares the whole line
+	 * with DETERMINISTIC, so it also takes a deterministic player that
+	 * asks for any option as stochastic, and plays each of its pairings
+	 * NUMGAMES times rather than once.
+	 */
+	protected boolean compactProtocol = true;
+	public static final String COMPACT = "COMPACT";
+	/**
+	 * Offer length-prefixed binary frames (see MessageChannel). The offer
+	 * rides on the same line as COMPACT; whether the server accepted it
+	 * is told from the first byte it sends back.
+	 */
+	protected boolean binaryProtocol = true;
+	public static final String BINARY = "BINARY";
+	/**
+	 * How many games to offer to play at once, each on its own engine
+	 * (see newEngine). The offer goes on the same line as COMPACT; a
+	 * server taking it up tags each game's messages (see Session), and
+	 * one that doesn't sends them plain, one game at a time.
+	 */
+	protected int sessions;
+	public static final String SESSIONS = "SESSIONS";
+	private ExecutorService sessionPool;
+	private final ConcurrentHashMap<Integer, Link> links = new ConcurrentHashMap<Integer, Link>();
+	private final ConcurrentLinkedQueue<GamePlayer> idle = new ConcurrentLinkedQueue<GamePlayer>();
+	private final ArrayList<GamePlayer> engines = new ArrayList<GamePlayer>();
+	/**
+	 * If set, compete() keeps it told of the game clock: game starts,
+	 * when each MOVE arrives, when the reply leaves and what the server
+	 * charged for it.
+	 */
+	protected TimeManager timeManager;
+	/**
+	 * Think on the opponent's time (see ponder). Off by default.
+	 */
+	protected boolean pondering = false;
+	private Thread ponderThread;
+	private volatile boolean ponderStop;
+	private int ponderHits, ponderMisses;
+	/**
+	 * Run getMove on its own thread, and send bestMoveSoFar() or
+	 * fallbackMove() instead if it is still thinking watchdogMargin
+	 * seconds before the server would DQ us. Needs a timeManager to
+	 * know the server's limits.
+	 */
+	protected boolean watchdog = true;
+	protected double watchdogMargin;
+	private ExecutorService mover;
+	private boolean moveLate;
+	private int moveCalls;						// getMove calls handed to the mover
+	private volatile int moveRunning, moveStop = -1;	// the one running, and the last the watchdog gave up on
     
 	public Params tournamentParams = new Params("config/tournament.txt");
 	
@@ -71,6 +128,64 @@ public abstract class GamePlayer {
 	 */
 	public void done()
 	{ }
+	/**
+	 * Called on a background thread after each move is sent, when
+	 * pondering is on, to search while the opponent thinks. Should keep
+	 * going until ponderStopped() turns true, and can leave its work for
+	 * the next getMove to pick up. Default behavior is to do nothing.
+	 * @param state Position the opponent now has to move from
+	 */
+	public void ponder(GameState state)
+	{ }
+	/**
+	 * Tells ponder() that the opponent has answered.
+	 * @return true once ponder() should return
+	 */
+	protected boolean ponderStopped()
+	{ return ponderStop; }
+	/**
+	 * Tells getMove that the watchdog has already sent a move for it.
+	 * A long getMove should look now and then and, once it is true,
+	 * return whatever it has, since the next move waits for it to finish.
+	 * @return true once getMove should return
+	 */
+	protected boolean moveStopped()
+	{ return moveRunning <= moveStop; }
+	/**
+	 * The reply pondering expected, asked for after ponder() returns.
+	 * Used to report how often the opponent was predicted. Default
+	 * behavior is to have no guess.
+	 * @return Predicted move, or null
+	 */
+	public GameMove ponderGuess()
+	{ return null; }
+	/**
+	 * Called by the watchdog when getMove has run out of time. An engine
+	 * should hand over the best move it has found and wind getMove down.
+	 * Default behavior is to have nothing.
+	 * @return Move to send, or null
+	 */
+	public GameMove bestMoveSoFar()
+	{ return null; }
+	/**
+	 * Called by the watchdog when getMove has run out of time or failed
+	 * and bestMoveSoFar had nothing legal. Must be quick. Default behavior
+	 * is to have nothing, in which case the late getMove is waited for.
+	 * @param state Current state of the game
+	 * @return Move to send, or null
+	 */
+	public GameMove fallbackMove(GameState state)
+	{ return null; }
+	/**
+	 * Makes another instance of this player, to play one game while
+	 * others are going (see sessions). Its init() is called before its
+	 * first game and it is kept for later ones; done() is only called
+	 * on this player. Default behavior is to have none, so the player
+	 * plays one game at a time.
+	 * @return A new engine, or null
+	 */
+	protected GamePlayer newEngine()
+	{ return null; }
 	/**
 	 * Constructs a game player
 	 * @param nickname Mascot name of team
@@ -81,80 +196,246 @@ public abstract class GamePlayer {
 		this.nickname = nickname;
 		this.gameState = gs;
 		this.deterministic = isDeterministic;
+		watchdogMargin = tournamentParams.real("WATCHDOGMARGIN", 1.0);
+		sessions = tournamentParams.integer("SESSIONS", 1);
 	}
 
-	private void compete(BufferedReader input, PrintWriter output, int dumpLevel)
+	/**
+	 * Where one game's fields come from and its answers go: the channel
+	 * itself, or for a session, the queue its fields are sorted into and
+	 * the channel with the session's tag.
+	 */
+	private static class Link {
+		final MessageChannel channel;
+		final int id;
+		final BlockingQueue<String> in;
+
+		/**
+		 * @param id Session, or -1 for the channel as it is
+		 */
+		Link(MessageChannel channel, int id)
+		{
+			this.channel = channel;
+			this.id = id;
+			in = (id < 0 ? null : new LinkedBlockingQueue<String>());
+		}
+		String read() throws IOException, InterruptedException
+		{ return in == null ? channel.readLine() : in.take(); }
+		void send(String... fields) throws IOException
+		{
+			if (in == null) {
+				channel.send(fields);
+				return;
+			}
+			String [] tagged = new String [fields.length + 1];
+			tagged[0] = Session.tag(id, fields.length);
+			System.arraycopy(fields, 0, tagged, 1, fields.length);
+			channel.send(tagged);
+		}
+		void sendMove(GameMove mv) throws IOException
+		{
+			if (in == null)
+				channel.sendMove(mv);
+			else
+				channel.sendMove(mv, Session.tag(id, 1));
+		}
+	}
+	/**
+	 * Hands the fields behind a session tag to that session, starting it
+	 * on an engine of its own if it is new.
+	 */
+	private void route(String tag, MessageChannel channel, int dumpLevel) throws IOException
+	{
+		StringTokenizer toks = new StringTokenizer(tag);
+		toks.nextToken();
+		int id = Integer.parseInt(toks.nextToken());
+		int count = Integer.parseInt(toks.nextToken());
+		Link link = links.get(id);
+		if (link == null) {
+			link = new Link(channel, id);
+			links.put(id, link);
+			startSession(link, dumpLevel);
+		}
+		for (int i=0; i<count; i++) {
+			link.in.add(channel.readLine());
+		}
+	}
+	private void startSession(final Link link, final int dumpLevel)
+	{
+		sessionPool.execute(new Runnable() {
+			public void run()
+			{
+				GamePlayer engine = idle.poll();
+				try {
+					if (engine == null) {
+						// more than were made up front; made here so the reader never waits on it
+						engine = newEngine();
+						engine.init();
+						synchronized (engines) {
+							engines.add(engine);
+						}
+					}
+					String cmd;
+					do {
+						cmd = link.read();
+						engine.serve(cmd, link, dumpLevel);
+					} while (!cmd.equals("OVER"));
+				}
+				catch (Exception e) {
+					System.err.println("Problem in " + nickname + " session " + link.id + " " + e);
+					System.err.flush();
+				}
+				links.remove(link.id);
+				if (engine != null)
+					idle.add(engine);
+			}
+		});
+	}
+	/**
+	 * Stops the session threads, once the tournament is done, and counts
+	 * the engines' pondering in with ours.
+	 */
+	private void endSessions()
+	{
+		if (sessionPool == null)
+			return;
+		sessionPool.shutdownNow();
+		synchronized (engines) {
+			for (GamePlayer e : engines) {
+				ponderHits += e.ponderHits;
+				ponderMisses += e.ponderMisses;
+			}
+		}
+	}
+
+	private void startPondering(GameMove mv)
+	{
+		final GameState next = (GameState)gameState.clone();
+		if (!next.makeMove(mv) || next.getStatus() != GameState.Status.GAME_ON) {
+			return;
+		}
+		ponderStop = false;
+		ponderThread = new Thread(new Runnable() {
+			public void run()
+			{ ponder(next); }
+		}, nickname + " ponder");
+		ponderThread.setDaemon(true);
+		ponderThread.start();
+	}
+	/**
+	 * @return What ponder() expected, or null if it wasn't running
+	 */
+	private GameMove stopPondering() throws InterruptedException
+	{
+		if (ponderThread == null) {
+			return null;
+		}
+		ponderStop = true;
+		ponderThread.join();
+		ponderThread = null;
+		return ponderGuess();
+	}
+
+	/**
+	 * Gets the move for the current state, under the watchdog if there is
+	 * one. getMove gets its own copy of the state, since a late call may
+	 * still be running when the next MOVE is parsed. Calls run one after
+	 * another on the same thread, so a late one is told to stop (see
+	 * moveStopped) and the next waits for it out of its own time.
+	 */
+	private GameMove watchedMove(final String lastMove) throws Exception
+	{
+		moveLate = false;
+		if (!watchdog || timeManager == null) {
+			return getMove(gameState, lastMove);
+		}
+		long limit = timeManager.watchdogDeadline(watchdogMargin);
+		final GameState copy = (GameState)gameState.clone();
+		if (mover == null) {
+			mover = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, nickname + " getMove");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		final int call = ++moveCalls;
+		Future<GameMove> result = mover.submit(new Callable<GameMove>() {
+			public GameMove call()
+			{
+				moveRunning = call;
+				return getMove(copy, lastMove);
+			}
+		});
+		GameMove mv;
+		try {
+			return result.get(Math.max(limit - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+		}
+		catch (TimeoutException e) {
+			// the late call is asked to wind down, and the next move queues behind it
+			moveLate = true;
+			moveStop = call;
+			mv = bestMoveSoFar();
+			if (mv == null || !gameState.moveOK(mv)) {
+				mv = fallbackMove(gameState);
+			}
+			System.err.printf("%s: watchdog sent %s%n", nickname, mv);
+		}
+		catch (ExecutionException e) {
+			System.err.println("Problem in " + nickname + " getMove " + e.getCause());
+			mv = fallbackMove(gameState);
+		}
+		if (mv == null) {
+			mv = result.get();		// nothing else to send
+		}
+		return mv;
+	}
+
+	private void compete(MessageChannel channel, int dumpLevel)
 	{
 		try {
 			init();
-			output.println(nickname);
-			if (deterministic) {
-				output.println("DETERMINISTIC");
-			} else {
-				output.println("STOCHASTIC");
+			// with options after it, an older server takes DETERMINISTIC for STOCHASTIC (see compactProtocol)
+			String type = deterministic ? "DETERMINISTIC" : "STOCHASTIC";
+			if (compactProtocol) {
+				type += " " + COMPACT;
+			}
+			if (binaryProtocol) {
+				type += " " + BINARY;
+				channel.detectBinary();
 			}
+			GamePlayer first = (sessions > 1 ? newEngine() : null);
+			if (first != null) {
+				// every engine now, so a new game never waits on one being made
+				GamePlayer e = first;
+				while (e != null) {
+					e.init();
+					engines.add(e);
+					idle.add(e);
+					e = (engines.size() < sessions ? newEngine() : null);
+				}
+				type += " " + SESSIONS + " " + sessions;
+				sessionPool = Executors.newFixedThreadPool(sessions, new ThreadFactory() {
+					private int count;
+					public synchronized Thread newThread(Runnable r)
+					{
+						Thread t = new Thread(r, nickname + " session " + count++);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+			channel.send(nickname, type);
 
+			Link plain = new Link(channel, -1);
 			while (true) {
-				String cmd = input.readLine();
-				if (cmd.equals("DONE")) {
-					if (dumpLevel > 0)
-						System.out.println(nickname + "is done playing");
-					done();
+				String cmd = channel.readLine();
+				if (cmd.startsWith(Session.TAG + " ")) {
+					route(cmd, channel, dumpLevel);
+				} else if (!serve(cmd, plain, dumpLevel)) {
 					break;
-				} else if (cmd.equals("START")) {
-					side = GameState.str2who(input.readLine());
-					String opp = input.readLine();
-					if (dumpLevel > 0)
-						System.out.printf("\"%s\" new game as %s against \"%s\"%n", nickname, side, opp);
-					String msg = messageForOpponent(opp);
-					if (dumpLevel > 0)
-						System.out.println("Message for opponent: " + msg);
-					output.println(msg);
-					msg = input.readLine();
-					messageFromOpponent(msg);
-					if (dumpLevel > 0)
-						System.out.println("Message from opponent: " + msg);
-					startGame(opp);
-				} else if (cmd.equals("OVER")) {
-					String winner = input.readLine();
-					output.println("OVER");
-					if (winner.equals("DRAW")) {
-						if (dumpLevel > 0)
-							System.out.println("I (" + nickname + ") had a draw");
-						endGame(0);
-					} else if (GameState.str2who(winner) == side) {
-						if (dumpLevel > 0)
-							System.out.println("I (" + nickname + ") won");
-						endGame(+1);
-					} else {
-						if (dumpLevel > 0)
-							System.out.println("I (" + nickname + ") lost");
-						endGame(-1);
-					}
-				} else if (cmd.equals("MOVE")) {
-					String lastMove = input.readLine();
-					String boardStr = input.readLine();
-					gameState.parseMsgString(boardStr);
-
-					if (dumpLevel > 1) {
-						System.out.printf("Turn %s (%s)%n", nickname, side);
-						System.out.printf("Last move: %s%n", lastMove.toString());
-						System.out.println("Current state\n" + gameState);
-					}
-					GameMove mv = getMove(gameState, lastMove);
-					if (dumpLevel > 1)
-						System.out.println("Sending my move: " + mv);
-					output.println(mv.toString());
-					String timeStr = input.readLine();	// should be "TIME"
-					if (!timeStr.equals("TIME")) {
-						System.err.println("time message" + timeStr);
-					}
-					double time = Double.parseDouble(input.readLine());
-					if (dumpLevel > 1)
-						System.out.printf("%f secs%n", time);
-					timeOfLastMove(time);
-				} else {
-					System.err.println("bad command from server: " + cmd);
 				}
 			}
 		}
@@ -163,6 +444,95 @@ public abstract class GamePlayer {
 			System.err.flush();
 		}
 	}
+	/**
+	 * Carries out a command from the server, reading the fields that go
+	 * with it from link and answering there.
+	 * @return false once the tournament is done
+	 */
+	private boolean serve(String cmd, Link link, int dumpLevel) throws Exception
+	{
+		if (cmd.equals("MOVE") && timeManager != null)
+			timeManager.moveReceived();
+		GameMove guess = stopPondering();
+		if (cmd.equals("DONE")) {
+			endSessions();
+			if (dumpLevel > 0)
+				System.out.println(nickname + "is done playing");
+			if (pondering && dumpLevel > 0)
+				System.out.printf("%s pondering: %d hits, %d misses%n", nickname, ponderHits, ponderMisses);
+			done();
+			return false;
+		} else if (cmd.equals("START")) {
+			side = GameState.str2who(link.read());
+			String opp = link.read();
+			if (dumpLevel > 0)
+				System.out.printf("\"%s\" new game as %s against \"%s\"%n", nickname, side, opp);
+			String msg = messageForOpponent(opp);
+			if (dumpLevel > 0)
+				System.out.println("Message for opponent: " + msg);
+			link.send(msg);
+			msg = link.read();
+			messageFromOpponent(msg);
+			if (dumpLevel > 0)
+				System.out.println("Message from opponent: " + msg);
+			if (timeManager != null)
+				timeManager.startGame();
+			startGame(opp);
+		} else if (cmd.equals("OVER")) {
+			String winner = link.read();
+			link.send("OVER");
+			if (winner.equals("DRAW")) {
+				if (dumpLevel > 0)
+					System.out.println("I (" + nickname + ") had a draw");
+				endGame(0);
+			} else if (GameState.str2who(winner) == side) {
+				if (dumpLevel > 0)
+					System.out.println("I (" + nickname + ") won");
+				endGame(+1);
+			} else {
+				if (dumpLevel > 0)
+					System.out.println("I (" + nickname + ") lost");
+				endGame(-1);
+			}
+		} else if (cmd.equals("MOVE")) {
+			String lastMove = link.read();
+			if (guess != null) {
+				if (guess.toString().equals(lastMove))
+					ponderHits++;
+				else
+					ponderMisses++;
+			}
+			String boardStr = link.read();
+			gameState.parseMsgString(boardStr);
+
+			if (dumpLevel > 1) {
+				System.out.printf("Turn %s (%s)%n", nickname, side);
+				System.out.printf("Last move: %s%n", lastMove.toString());
+				System.out.println("Current state\n" + gameState);
+			}
+			GameMove mv = watchedMove(lastMove);
+			if (dumpLevel > 1)
+				System.out.println("Sending my move: " + mv);
+			link.sendMove(mv);
+			if (timeManager != null)
+				timeManager.moveSent();
+			if (pondering && !moveLate)
+				startPondering(mv);
+			String timeStr = link.read();	// should be "TIME"
+			if (!timeStr.equals("TIME")) {
+				System.err.println("time message" + timeStr);
+			}
+			double time = Double.parseDouble(link.read());
+			if (dumpLevel > 1)
+				System.out.printf("%f secs%n", time);
+			if (timeManager != null)
+				timeManager.timeReply(time);
+			timeOfLastMove(time);
+		} else {
+			System.err.println("bad command from server: " + cmd);
+		}
+		return true;
+	}
 	/**
 	 * Used to compete the player in a tournament.
 	 * @param args command line arguments passed to the GamePlayer
@@ -182,10 +552,9 @@ public abstract class GamePlayer {
 		
 		try {
 			Socket socket = new Socket(host, port);
-			PrintWriter output  = new PrintWriter(socket.getOutputStream(), true);
-			BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			MessageChannel channel = new MessageChannel(socket);
 			System.out.println("Connected to server, now waiting to play");
-			compete(input, output, dumpLevel);
+			compete(channel, dumpLevel);
 		}
 		catch (Exception e) {
 			System.err.println("Error connecting to" + host + " " + port);
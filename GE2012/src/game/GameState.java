@@ -63,6 +63,16 @@ public abstract class GameState implements Cloneable {
 		numMoves++;
 		togglePlayer();
 	}
+	/**
+	 * Reverses the bookkeeping of newMove(). A move can only have been
+	 * made while the game was on, so that is the status restored.
+	 */
+	protected void undoMove()
+	{
+		numMoves--;
+		togglePlayer();
+		status = Status.GAME_ON;
+	}
 	protected void clear()
 	{
 		who = Who.HOME;
@@ -89,6 +99,14 @@ public abstract class GameState implements Cloneable {
 	 * @return true if move was successfully performed
 	 */
 	public abstract boolean makeMove(GameMove mv);
+	/**
+	 * Takes back the most recent move performed by makeMove, restoring
+	 * the state exactly as it was before that move. Moves can be taken
+	 * back one at a time until the start of the game, or until the
+	 * last reset or parseMsgString, whichever is more recent.
+	 * @return true if a move was taken back; false if there was none
+	 */
+	public abstract boolean unmakeMove();
 	/**
 	 * Recreates the board game's state from a string representation.
 	 * In particular, the string is a string generated as a "message"
@@ -109,6 +127,14 @@ public abstract class GameState implements Cloneable {
 	 * communication.
 	 */
 	public abstract String msgString();
+	/**
+	 * Convert to a string for clients that negotiated the compact
+	 * protocol. It must carry enough for parseMsgString to rebuild the
+	 * full state locally. Default behavior is to send msgString().
+	 * @return Compact representation of the State
+	 */
+	public String compactMsgString()
+	{ return msgString(); }
 	/**
 	 * Determines if a particular move is legal, given the current
 	 * board configuration.
@@ -116,6 +142,14 @@ public abstract class GameState implements Cloneable {
 	 * @return true if the move is valid
 	 */
 	public abstract boolean moveOK(GameMove mv);
+	/**
+	 * 64-bit key identifying the position, suitable for caches and
+	 * transposition tables. Equal positions have equal keys; distinct
+	 * positions collide only with negligible probability. The key is
+	 * maintained incrementally, so this should be a constant-time call.
+	 * @return Position key
+	 */
+	public abstract long getHashKey();
 	/**
 	 * Takes a message suffix and parses out the information common to
 	 * all GameStates.
@@ -1,5 +1,4 @@
 package game;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.PrintStream;
 import java.util.Scanner;
@@ -8,13 +7,17 @@ public class GameThread extends Thread {
 	public static String dir;
 	public GameState.Status result;
 	public int homeID, awayID;
-	private int gameNum;
+	private int gameNum, session;
 	private Client home, away;
 	private GameMove mv;
 	private GameState board;
 	
-	public GameThread(Client h, int hID, Client a, int aID, int num, Object move, Object brd)
+	/**
+	 * @param session Id of the game for clients playing several at once (see Session)
+	 */
+	public GameThread(Client h, int hID, Client a, int aID, int num, int session, Object move, Object brd)
 	{
+		this.session = session;
 		homeID = hID;
 		awayID = aID;
 		home = h;
@@ -24,7 +27,7 @@ public class GameThread extends Thread {
 		gameNum = num;
 		result = GameState.Status.GAME_ON;
 	}
-	private static String getFname(String n1, char c1, String n2, char c2, int n, String result)
+	static String getFname(String n1, char c1, String n2, char c2, int n, String result)
 	{
 		return n1 + "/" + n1 + "(" + c1 + ") vs " + n2 + "(" + c2 + ") #" + n + " " +  result + ".txt"; 
 	}
@@ -46,7 +49,7 @@ public class GameThread extends Thread {
 			output.println(line);
 		}
     }
-	private static void copyDumpFile(File src, String [] names, String dir, int gameNum, String homeResult)
+	static void copyDumpFile(File src, String [] names, String dir, int gameNum, String homeResult)
 	{
 		String awayResult;
 		if (homeResult.equals("WIN")) {
@@ -61,22 +64,12 @@ public class GameThread extends Thread {
 		copy(src, dir, getFname(names[1], Tournament.gameParams.character("AWAYSYM"),
 								names[0], Tournament.gameParams.character("HOMESYM"), gameNum, awayResult)); 
 	}
-    private static void flushSocket(BufferedReader in)
-    {
-    	try {
-	    	String cmd = in.readLine();
-	    	while (!cmd.equals("OVER")) {
-	    		cmd = in.readLine();
-	    	}
-    	}
-    	catch (Exception e) {
-    	}
-    }
 	public void run()
 	{
 		Client [] players = { home, away };
 		String [] names = { players[0].name, players[1].name };
 		int [] warnings = {0, 0};
+		double [] remaining = new double [2];
 		File tmpFile = null;
 		PrintStream m = null;
 		char homeSym = Tournament.gameParams.character("HOMESYM");
@@ -118,32 +111,37 @@ public class GameThread extends Thread {
 			System.err.flush();
 		}
 	
-		players[0].simpleMsg("START", "HOME", players[1].name);
-		players[1].simpleMsg("START", "AWAY", players[0].name);
-		String m0 = players[0].hardLimitResponse(10);
-		String m1 = players[1].hardLimitResponse(10);
-		players[0].simpleMsg(m1);
-		players[1].simpleMsg(m0);
-		players[0].gameTimeRemaining = players[0].gameTimeLimit;
-		players[1].gameTimeRemaining = players[1].gameTimeLimit;
+		Session [] sessions = { home.open(session), away.open(session) };
+		sessions[0].simpleMsg("START", "HOME", players[1].name);
+		sessions[1].simpleMsg("START", "AWAY", players[0].name);
+		String m0 = sessions[0].hardLimitResponse(10);
+		String m1 = sessions[1].hardLimitResponse(10);
+		sessions[0].simpleMsg(m1);
+		sessions[1].simpleMsg(m0);
+		remaining[0] = players[0].gameTimeLimit;
+		remaining[1] = players[1].gameTimeLimit;
 
 		int who = 0;
 		GameState.Status status = board.getStatus();
 		String lastMove = "--";
 		
 		while (status == GameState.Status.GAME_ON) {
-			players[who].simpleMsg("MOVE", lastMove, board.msgString());
-			double moveLimit = Math.min(players[who].gameTimeRemaining, 
+			sessions[who].simpleMsg("MOVE", lastMove,
+					players[who].compact ? board.compactMsgString() : board.msgString());
+			double moveLimit = Math.min(remaining[who], 
 										players[who].finalPlayLimit);
 			
-			double actualTime = players[who].timedResponse(moveLimit, mv);
-			players[who].gameTimeRemaining -= actualTime;
-			System.out.println(players[who].name + " " + players[who].gameTimeRemaining);
+			double actualTime = sessions[who].timedResponse(moveLimit, mv);
+			remaining[who] -= actualTime;
+			System.out.println(players[who].name + " " + remaining[who]);
 			if (actualTime < 0) {
 				players[who].DQd = true;
 				System.err.printf("%s DQd%n", players[who].name);
 				System.err.flush();
-				players[who].simpleMsg("DONE");
+				// a multiplexed client is told by the OVER below; DONE would end every game it has going
+				if (players[who].sessions == 1) {
+					players[who].simpleMsg("DONE");
+				}
 				m.printf("%s won. %s DQd%n", names[(who+1)%2], names[who]);
 				break;
 			} else if (actualTime > players[who].moveLimit) {
@@ -191,9 +189,10 @@ public class GameThread extends Thread {
 			winner = "DRAW";
 		}
 		for (int i=0; i<2; i++) {
-			players[i].simpleMsg("OVER", winner);
+			sessions[i].simpleMsg("OVER", winner);
 			if (!players[i].DQd)
-				flushSocket(players[i].input);
+				sessions[i].flush();
+			sessions[i].close();
 		}
 		if (winner.equals("HOME")) {
 			copyDumpFile(tmpFile, names, dir, gameNum, "WIN");
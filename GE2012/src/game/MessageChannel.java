@@ -0,0 +1,314 @@
+package game;
+
+import java.io.*;
+import java.net.*;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Message transport between the server and a player. A message is a
+ * short list of fields (the lines of the original text protocol).
+ * In text mode each field is a line; in binary mode a whole message
+ * goes out as one length-prefixed frame:
+ *   int length, short field count, then per field a tag byte
+ *   followed by UTF-8 text (int byte count, bytes) or a 4-byte int,
+ *   which is how moves with a numeric code travel.
+ * Either way a message costs one flush. Readers see fields one at a
+ * time through readLine(), regardless of the mode.
+ * Sends are serialized with a lock rather than synchronized, which
+ * would pin a virtual thread to its carrier while it blocks writing.
+ */
+public class MessageChannel {
+	static final byte TEXT = 0, NUMBER = 1;
+	static final int MAX_FRAME = 1 << 24;
+
+	private final Socket sock;
+	private final BufferedInputStream rawIn;
+	private final OutputStream rawOut;
+	private BufferedReader reader;
+	private PrintWriter writer;
+	private DataInputStream in;
+	private DataOutputStream out;
+	private boolean binary;
+	private boolean detect;
+
+	private final ReentrantLock sending = new ReentrantLock();
+	private final ByteArrayOutputStream frame = new ByteArrayOutputStream(256);
+	private final DataOutputStream frameOut = new DataOutputStream(frame);
+	private byte [] pendingTag = new byte [4];
+	private String [] pendingText = new String [4];
+	private int [] pendingNum = new int [4];
+	private int pendingPos, pendingCount;
+
+	public MessageChannel(Socket sock) throws IOException
+	{
+		this.sock = sock;
+		sock.setTcpNoDelay(true);
+		rawIn = new BufferedInputStream(sock.getInputStream());
+		rawOut = new BufferedOutputStream(sock.getOutputStream());
+		writer = new PrintWriter(new OutputStreamWriter(rawOut));
+	}
+	public Socket getSocket()
+	{ return sock; }
+	public boolean isBinary()
+	{ return binary; }
+	/**
+	 * Switches both directions to binary frames. Only valid between
+	 * messages, when the peer has nothing unread in flight.
+	 */
+	public void useBinary()
+	{
+		writer.flush();
+		binary = true;
+		detect = false;
+		in = new DataInputStream(rawIn);
+		out = new DataOutputStream(rawOut);
+	}
+	/**
+	 * Decide the mode from the first byte received: a frame starts with
+	 * the high byte of its length, which is always 0, while a text
+	 * command starts with a letter. Used by players that offered binary
+	 * framing to a server that may not support it.
+	 */
+	public void detectBinary()
+	{ detect = true; }
+	private void detectMode() throws IOException
+	{
+		detect = false;
+		rawIn.mark(1);
+		int first = rawIn.read();
+		rawIn.reset();
+		if (first == 0) {
+			useBinary();
+		}
+	}
+	/**
+	 * Sends one message, flushing once.
+	 * @param fields Lines of the message
+	 */
+	public void send(String... fields) throws IOException
+	{
+		sending.lock();
+		try {
+			sendFields(fields);
+		}
+		finally {
+			sending.unlock();
+		}
+	}
+	private void sendFields(String... fields) throws IOException
+	{
+		if (binary) {
+			beginFrame(fields.length);
+			for (int i=0; i<fields.length; i++) {
+				byte [] bytes = fields[i].getBytes("UTF-8");
+				frameOut.writeByte(TEXT);
+				frameOut.writeInt(bytes.length);
+				frameOut.write(bytes);
+			}
+			endFrame();
+		} else {
+			for (int i=0; i<fields.length; i++) {
+				writer.println(fields[i]);
+			}
+			writer.flush();
+			if (writer.checkError()) {
+				throw new IOException("write failed");
+			}
+		}
+	}
+	/**
+	 * Sends a move as the last field of a message, using its numeric code
+	 * in binary mode when it has one.
+	 * @param before Fields to go ahead of it, if any
+	 */
+	public void sendMove(GameMove mv, String... before) throws IOException
+	{
+		sending.lock();
+		try {
+			int code = mv.toCode();
+			if (binary && code >= 0) {
+				beginFrame(before.length + 1);
+				for (int i=0; i<before.length; i++) {
+					byte [] bytes = before[i].getBytes("UTF-8");
+					frameOut.writeByte(TEXT);
+					frameOut.writeInt(bytes.length);
+					frameOut.write(bytes);
+				}
+				frameOut.writeByte(NUMBER);
+				frameOut.writeInt(code);
+				endFrame();
+			} else {
+				String [] fields = Arrays.copyOf(before, before.length + 1);
+				fields[before.length] = mv.toString();
+				sendFields(fields);
+			}
+		}
+		finally {
+			sending.unlock();
+		}
+	}
+	/**
+	 * Lays a message out as send() would put it on the wire, for the
+	 * non-blocking server (see NioServer).
+	 * @param binary Frame it, rather than one line per field
+	 */
+	static byte [] encode(boolean binary, String... fields)
+	{
+		try {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+			if (binary) {
+				DataOutputStream data = new DataOutputStream(buf);
+				data.writeInt(0);
+				data.writeShort(fields.length);
+				for (int i=0; i<fields.length; i++) {
+					byte [] bytes = fields[i].getBytes("UTF-8");
+					data.writeByte(TEXT);
+					data.writeInt(bytes.length);
+					data.write(bytes);
+				}
+				byte [] frame = buf.toByteArray();
+				int len = frame.length - 4;
+				frame[0] = (byte)(len >>> 24);
+				frame[1] = (byte)(len >>> 16);
+				frame[2] = (byte)(len >>> 8);
+				frame[3] = (byte)len;
+				return frame;
+			}
+			for (int i=0; i<fields.length; i++) {
+				buf.write(fields[i].getBytes("UTF-8"));
+				buf.write('\n');
+			}
+			return buf.toByteArray();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);		// can't happen writing to memory
+		}
+	}
+	private void beginFrame(int count) throws IOException
+	{
+		frame.reset();
+		frameOut.writeShort(count);
+	}
+	private void endFrame() throws IOException
+	{
+		out.writeInt(frame.size());
+		frame.writeTo(out);
+		out.flush();
+	}
+	/**
+	 * Reads the next field.
+	 * @return The field, or null at end of stream
+	 */
+	public String readLine() throws IOException
+	{
+		if (detect) {
+			detectMode();
+		}
+		if (!binary) {
+			if (reader == null) {
+				reader = new BufferedReader(new InputStreamReader(rawIn));
+			}
+			return reader.readLine();
+		}
+		if (!nextField()) {
+			return null;
+		}
+		if (pendingTag[pendingPos] == NUMBER) {
+			return Integer.toString(pendingNum[pendingPos++]);
+		}
+		return pendingText[pendingPos++];
+	}
+	/**
+	 * Reads the next field as it was sent.
+	 * @return A String, an Integer for a move sent as its code, or null
+	 *   at end of stream
+	 */
+	public Object readField() throws IOException
+	{
+		if (detect) {
+			detectMode();
+		}
+		if (binary) {
+			if (!nextField()) {
+				return null;
+			}
+			if (pendingTag[pendingPos] == NUMBER) {
+				return Integer.valueOf(pendingNum[pendingPos++]);
+			}
+		}
+		return readLine();
+	}
+	/**
+	 * Reads the next field into a move, accepting either form.
+	 * @return false at end of stream
+	 */
+	public boolean readMove(GameMove mv) throws IOException
+	{
+		if (detect) {
+			detectMode();
+		}
+		if (binary) {
+			if (!nextField()) {
+				return false;
+			}
+			if (pendingTag[pendingPos] == NUMBER) {
+				mv.parseCode(pendingNum[pendingPos++]);
+				return true;
+			}
+		}
+		String s = readLine();
+		if (s == null) {
+			return false;
+		}
+		mv.parseMove(s);
+		return true;
+	}
+	private boolean nextField() throws IOException
+	{
+		if (pendingPos < pendingCount) {
+			return true;
+		}
+		int len;
+		try {
+			len = in.readInt();
+		}
+		catch (EOFException e) {
+			return false;
+		}
+		if (len < 2 || len > MAX_FRAME) {
+			throw new IOException("bad frame length " + len);
+		}
+		int count = in.readUnsignedShort();
+		if (count > pendingTag.length) {
+			pendingTag = new byte [count];
+			pendingText = new String [count];
+			pendingNum = new int [count];
+		}
+		for (int i=0; i<count; i++) {
+			pendingTag[i] = in.readByte();
+			if (pendingTag[i] == NUMBER) {
+				pendingNum[i] = in.readInt();
+			} else {
+				int n = in.readInt();
+				if (n < 0 || n > len) {
+					throw new IOException("bad field length " + n);
+				}
+				byte [] bytes = new byte [n];
+				in.readFully(bytes);
+				pendingText[i] = new String(bytes, "UTF-8");
+			}
+		}
+		pendingPos = 0;
+		pendingCount = count;
+		return count > 0 || nextField();
+	}
+	public void close()
+	{
+		try {
+			sock.close();
+		}
+		catch (IOException e) {
+		}
+	}
+}
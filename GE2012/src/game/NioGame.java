@@ -0,0 +1,308 @@
+package game;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * One game on the non-blocking server (see NioServer), played to the
+ * same rules as GameThread.run but as a state machine: each field that
+ * arrives, and each deadline that passes, moves it on a step. It runs
+ * on its home client's loop, and both clients' fields are brought there.
+ */
+class NioGame implements NioServer.Handler, Runnable {
+	private enum Stage { OPENING, MOVING, CLOSING, OVER }
+	private static final long SECOND = 1000000000L;
+
+	private final Scheduler.Game game;
+	private final Client [] players;
+	private final String [] names;
+	private final NioServer.Loop loop;
+	private final GameMove mv;
+	private final GameState board;
+	private final BlockingQueue<Scheduler.Game> finished;
+	private final char homeSym, awaySym;
+
+	private Stage stage;
+	private final int [] warnings = {0, 0};
+	private final double [] remaining = new double [2];
+	private final String [] messages = new String [2];
+	private final boolean [] answered = new boolean [2];
+	private File tmpFile;
+	private PrintStream m;
+	private TimerWheel.Timer timer;
+	private int who;
+	private String lastMove = "--";
+	private long sent;
+	private GameState.Status status;
+
+	NioGame(Scheduler.Game game, Client home, Client away, GameMove mv, GameState board,
+			BlockingQueue<Scheduler.Game> finished)
+	{
+		this.game = game;
+		players = new Client [] { home, away };
+		names = new String [] { home.name, away.name };
+		loop = home.conn.loop;
+		this.mv = mv;
+		this.board = board;
+		this.finished = finished;
+		homeSym = Tournament.gameParams.character("HOMESYM");
+		awaySym = Tournament.gameParams.character("AWAYSYM");
+	}
+	private TimerWheel.Timer after(double secs, Runnable task)
+	{ return loop.timers.schedule(System.nanoTime() + (long)(secs * SECOND), task); }
+
+	/**
+	 * Starts the game; runs on the loop.
+	 */
+	public void run()
+	{
+		try {
+			tmpFile = File.createTempFile(names[0] + game.gameNum, names[1]);
+			m = new PrintStream(tmpFile);
+		}
+		catch (Exception e) {
+			System.err.println("Can't write the game record " + e);
+			m = new PrintStream(new java.io.ByteArrayOutputStream());
+		}
+
+		board.reset();
+		if (players[0].DQd && players[1].DQd) {
+			m.printf("Draw. Both DQ'd%n");
+			report("DRAW", GameState.Status.DRAW);
+			return;
+		} else if (players[0].DQd) {
+			m.printf("%s won. %s DQ'd", names[1], names[0]);
+			report("LOSS", GameState.Status.AWAY_WIN);
+			return;
+		} else if (players[1].DQd) {
+			m.printf("%s won. %s DQ'd", names[0], names[1]);
+			report("WIN", GameState.Status.HOME_WIN);
+			return;
+		}
+
+		stage = Stage.OPENING;
+		players[0].conn.handler = this;
+		players[1].conn.handler = this;
+		players[0].simpleMsg("START", "HOME", players[1].name);
+		players[1].simpleMsg("START", "AWAY", players[0].name);
+		timer = after(10, new Runnable() {
+			public void run()
+			{ exchange(); }
+		});
+	}
+
+	/**
+	 * Brings a field over to the game's loop.
+	 */
+	public void field(final NioServer.Connection c, final Object field, final long when)
+	{
+		if (c.loop != loop) {
+			loop.execute(new Runnable() {
+				public void run()
+				{ arrived(c, field, when); }
+			});
+		} else {
+			arrived(c, field, when);
+		}
+	}
+	public void closed(final NioServer.Connection c)
+	{
+		field(c, null, System.nanoTime());
+	}
+
+	/**
+	 * @param field null if the connection closed
+	 */
+	private void arrived(NioServer.Connection c, Object field, long when)
+	{
+		int i = (c == players[0].conn ? 0 : 1);
+		switch (stage) {
+		case OPENING:
+			// each side's message for the other
+			if (!answered[i]) {
+				answered[i] = true;
+				messages[i] = (field == null ? "" : field.toString());
+				if (answered[0] && answered[1]) {
+					exchange();
+				}
+			}
+			break;
+		case MOVING:
+			if (i == who) {
+				timer.cancel();
+				moved(field, when);
+			}
+			break;
+		case CLOSING:
+			// read up to each side's OVER
+			if (!answered[i] && (field == null || field.equals("OVER"))) {
+				answered[i] = true;
+				if (answered[0] && answered[1]) {
+					finish();
+				}
+			}
+			break;
+		default:
+			break;
+		}
+	}
+	private void exchange()
+	{
+		if (stage != Stage.OPENING)
+			return;
+		timer.cancel();
+		players[0].simpleMsg(messages[1] == null ? "" : messages[1]);
+		players[1].simpleMsg(messages[0] == null ? "" : messages[0]);
+		remaining[0] = players[0].gameTimeLimit;
+		remaining[1] = players[1].gameTimeLimit;
+		stage = Stage.MOVING;
+		status = board.getStatus();
+		ask();
+	}
+	/**
+	 * Sends MOVE to whoever is next, and sets their deadline.
+	 */
+	private void ask()
+	{
+		double moveLimit = Math.min(remaining[who], players[who].finalPlayLimit);
+		// the clock starts before MOVE goes, since the answer may come in on another loop first
+		sent = System.nanoTime();
+		players[who].simpleMsg("MOVE", lastMove,
+				players[who].compact ? board.compactMsgString() : board.msgString());
+		timer = after(moveLimit, new Runnable() {
+			public void run()
+			{ played(-1); }
+		});
+	}
+	private void moved(Object field, long when)
+	{
+		double actualTime = -1;
+		if (field != null) {
+			try {
+				if (field instanceof Integer) {
+					mv.parseCode((Integer)field);
+				} else {
+					mv.parseMove((String)field);
+				}
+				actualTime = (when - sent) / 1e9;
+				players[who].simpleMsg("TIME", String.format("%.3f", actualTime));
+			}
+			catch (Exception e) {
+				actualTime = -1;
+			}
+		}
+		played(actualTime);
+	}
+	/**
+	 * The rest of a turn, as GameThread.run has it after timedResponse.
+	 * @param actualTime Seconds the move took, or -1 if it never came
+	 */
+	private void played(double actualTime)
+	{
+		if (stage != Stage.MOVING)
+			return;
+		if (actualTime < 0)
+			System.err.printf("timeout %s%n", players[who].name);
+		remaining[who] -= actualTime;
+		System.out.println(players[who].name + " " + remaining[who]);
+		if (actualTime < 0) {
+			players[who].DQd = true;
+			System.err.printf("%s DQd%n", players[who].name);
+			System.err.flush();
+			players[who].simpleMsg("DONE");
+			m.printf("%s won. %s DQd%n", names[(who+1)%2], names[who]);
+			over();
+			return;
+		} else if (actualTime > players[who].moveLimit) {
+			warnings[who]++;
+			System.err.printf("warning %s %f%n", players[who].name, actualTime);
+			System.err.flush();
+			if (warnings[who] > players[who].maxWarnings) {
+				System.err.printf("Too many timeouts: %s%n", players[who].name);
+				System.err.flush();
+				m.printf("%s won. %s had too many timeouts%n", names[(who+1)%2], names[who]);
+				over();
+				return;
+			}
+		}
+		if (!board.makeMove(mv)) {
+			System.err.printf("%s won. %s made bad move %s%n", names[(who+1)%2], names[who], mv.toString());
+			System.err.flush();
+			m.printf("%s won. %s made bad move %s%n", names[(who+1)%2], names[who], mv.toString());
+			over();
+			return;
+		}
+		lastMove = mv.toString();
+		m.printf("%s (%c) played %s%n", names[who], (who == 0 ? homeSym : awaySym), lastMove);
+		m.printf("%s%n", board.toString());
+		status = board.getStatus();
+		who = (who + 1) % 2;
+		if (status == GameState.Status.GAME_ON) {
+			ask();
+		} else {
+			over();
+		}
+	}
+	/**
+	 * Tells both sides the result and waits for their OVER.
+	 */
+	private void over()
+	{
+		String winner;
+		if (status == GameState.Status.GAME_ON) {
+			if (who == 0) {
+				status = GameState.Status.AWAY_WIN;
+				winner = "AWAY";
+			} else {
+				status = GameState.Status.HOME_WIN;
+				winner = "HOME";
+			}
+		} else if (status == GameState.Status.HOME_WIN) {
+			m.printf("%s (%c) won.%n", names[0], homeSym);
+			winner = "HOME";
+		} else if (status == GameState.Status.AWAY_WIN) {
+			m.printf("%s (%c) won.%n", names[1], awaySym);
+			winner = "AWAY";
+		} else {
+			m.printf("draw.%n");
+			winner = "DRAW";
+		}
+		stage = Stage.CLOSING;
+		for (int i=0; i<2; i++) {
+			players[i].simpleMsg("OVER", winner);
+			answered[i] = players[i].DQd;
+		}
+		if (answered[0] && answered[1]) {
+			finish();
+			return;
+		}
+		timer = after(10, new Runnable() {
+			public void run()
+			{ finish(); }
+		});
+	}
+	private void finish()
+	{
+		if (stage == Stage.OVER)
+			return;
+		timer.cancel();
+		players[0].conn.handler = null;
+		players[1].conn.handler = null;
+		if (status == GameState.Status.HOME_WIN) {
+			report("WIN", status);
+		} else if (status == GameState.Status.AWAY_WIN) {
+			report("LOSS", status);
+		} else {
+			report("DRAW", status);
+		}
+	}
+	private void report(String homeResult, GameState.Status result)
+	{
+		stage = Stage.OVER;
+		m.close();
+		if (tmpFile != null)
+			GameThread.copyDumpFile(tmpFile, names, GameThread.dir, game.gameNum, homeResult);
+		game.result = result;
+		finished.add(game);
+	}
+}
@@ -0,0 +1,431 @@
+package game;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tournament server that drives every client from a small fixed set of
+ * threads instead of a blocked thread per game. Each thread runs an
+ * event loop over a Selector: its sockets are non-blocking, and what
+ * arrives on one is handed, field by field, to the state machine the
+ * connection is attached to (the join handshake, then an NioGame).
+ * Deadlines are kept in each loop's TimerWheel, not in socket timeouts.
+ *
+ * Connections are dealt out to the loops as they are accepted. A game
+ * belongs to its home client's loop; fields from the away client are
+ * passed over as tasks, so a game is only ever touched by one thread.
+ *
+ * The wire format is MessageChannel's, in text or binary framing.
+ * Clients play one game at a time here; an offer of SESSIONS is not
+ * taken up, so their messages go untagged.
+ * Selected with SERVER=NIO in tournament.txt, NIOTHREADS loops.
+ */
+public class NioServer {
+	public static final long TICK = 10000000L;		// 10 ms wheel slots
+	public static final int SLOTS = 512;
+
+	/**
+	 * Takes the fields that arrive on a connection. Called on the
+	 * connection's loop.
+	 */
+	interface Handler {
+		/**
+		 * @param field A String, or an Integer for a move sent as its code
+		 * @param when System.nanoTime() it was read
+		 */
+		void field(Connection c, Object field, long when);
+		void closed(Connection c);
+	}
+
+	/**
+	 * One thread's selector, timers and queue of tasks handed in from
+	 * other threads.
+	 */
+	static class Loop implements Runnable {
+		final Selector selector;
+		final TimerWheel timers = new TimerWheel(TICK, SLOTS);
+		private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private volatile boolean stopping;
+		private Thread thread;
+
+		Loop() throws IOException
+		{ selector = Selector.open(); }
+		boolean inLoop()
+		{ return Thread.currentThread() == thread; }
+		/**
+		 * Runs a task on this loop, soon.
+		 */
+		void execute(Runnable task)
+		{
+			tasks.add(task);
+			selector.wakeup();
+		}
+		public void run()
+		{
+			long stopBy = Long.MAX_VALUE;
+			while (true) {
+				try {
+					long now = System.nanoTime();
+					if (stopping) {
+						// finish off what was handed in, and what that has to send
+						stopBy = Math.min(stopBy, now + 2000000000L);
+						if ((tasks.isEmpty() && !hasOutput()) || now > stopBy)
+							break;
+						selector.select(100);
+					} else {
+						selector.select(timers.delayMillis(now));
+					}
+					now = System.nanoTime();
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						Connection c = (Connection)key.attachment();
+						if (key.isValid() && key.isReadable())
+							c.readable(now);
+						if (key.isValid() && key.isWritable())
+							c.writable();
+					}
+					Runnable task;
+					while ((task = tasks.poll()) != null) {
+						task.run();
+					}
+					timers.advance(System.nanoTime());
+				}
+				catch (Exception e) {
+					System.err.println("Server loop problem " + e);
+					System.err.flush();
+				}
+			}
+			for (SelectionKey key : selector.keys()) {
+				((Connection)key.attachment()).close();
+			}
+		}
+		private boolean hasOutput()
+		{
+			for (SelectionKey key : selector.keys()) {
+				if (((Connection)key.attachment()).hasOutput())
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A client's socket, owned by one loop.
+	 */
+	static class Connection {
+		final SocketChannel channel;
+		final Loop loop;
+		volatile Handler handler;
+		volatile boolean binary;
+		private SelectionKey key;
+		private ByteBuffer in = ByteBuffer.allocate(4096);
+		private final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+		private boolean closed;
+
+		Connection(SocketChannel channel, Loop loop)
+		{
+			this.channel = channel;
+			this.loop = loop;
+		}
+		/**
+		 * Joins the loop's selector; must run on the loop.
+		 */
+		void register() throws IOException
+		{ key = channel.register(loop.selector, SelectionKey.OP_READ, this); }
+		/**
+		 * Sends one message. Safe from any thread.
+		 */
+		void send(String... fields)
+		{
+			final byte [] bytes = MessageChannel.encode(binary, fields);
+			if (loop.inLoop()) {
+				queue(bytes);
+			} else {
+				loop.execute(new Runnable() {
+					public void run()
+					{ queue(bytes); }
+				});
+			}
+		}
+		private void queue(byte [] bytes)
+		{
+			if (closed)
+				return;
+			out.add(ByteBuffer.wrap(bytes));
+			writable();
+		}
+		boolean hasOutput()
+		{ return !closed && !out.isEmpty(); }
+		void writable()
+		{
+			try {
+				while (!out.isEmpty()) {
+					ByteBuffer buf = out.peek();
+					channel.write(buf);
+					if (buf.hasRemaining())
+						break;
+					out.poll();
+				}
+				key.interestOps(out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+			catch (IOException e) {
+				close();
+			}
+		}
+		void readable(long now)
+		{
+			int n;
+			try {
+				n = channel.read(in);
+			}
+			catch (IOException e) {
+				n = -1;
+			}
+			if (n < 0) {
+				close();
+				return;
+			}
+			in.flip();
+			int need = decode(now);
+			in.compact();
+			if (need > in.capacity()) {
+				ByteBuffer bigger = ByteBuffer.allocate(need);
+				in.flip();
+				bigger.put(in);
+				in = bigger;
+			}
+		}
+		/**
+		 * Hands over every whole field in the buffer. The mode is looked at
+		 * afresh for each, since the handshake switches it.
+		 * @return The buffer size needed for the next field
+		 */
+		private int decode(long now)
+		{
+			try {
+				while (!closed) {
+					if (binary) {
+						if (in.remaining() < 4)
+							return 4;
+						int len = in.getInt(in.position());
+						if (len < 2 || len > MessageChannel.MAX_FRAME)
+							throw new IOException("bad frame length " + len);
+						if (in.remaining() < 4 + len)
+							return 4 + len;
+						int end = in.position() + 4 + len;
+						in.getInt();
+						int count = in.getShort() & 0xffff;
+						for (int i=0; i<count; i++) {
+							if (in.get() == MessageChannel.NUMBER) {
+								deliver(Integer.valueOf(in.getInt()), now);
+							} else {
+								int m = in.getInt();
+								if (m < 0 || m > end - in.position())
+									throw new IOException("bad field length " + m);
+								byte [] bytes = new byte [m];
+								in.get(bytes);
+								deliver(new String(bytes, "UTF-8"), now);
+							}
+						}
+						in.position(end);
+					} else {
+						int start = in.position(), i = start;
+						while (i < in.limit() && in.get(i) != '\n') {
+							i++;
+						}
+						if (i == in.limit())
+							return (in.remaining() < in.capacity() ? in.capacity() : 2 * in.capacity());
+						int stop = (i > start && in.get(i - 1) == '\r' ? i - 1 : i);
+						byte [] bytes = new byte [stop - start];
+						in.get(bytes);
+						in.position(i + 1);
+						deliver(new String(bytes, "UTF-8"), now);
+					}
+				}
+			}
+			catch (IOException e) {
+				System.err.println("Bad message " + e);
+				close();
+			}
+			catch (BufferUnderflowException e) {
+				System.err.println("Bad message " + e);
+				close();
+			}
+			return 0;
+		}
+		private void deliver(Object field, long now)
+		{
+			Handler h = handler;
+			if (h != null)
+				h.field(this, field, now);
+		}
+		void close()
+		{
+			if (closed)
+				return;
+			closed = true;
+			if (key != null)
+				key.cancel();
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+			}
+			Handler h = handler;
+			if (h != null)
+				h.closed(this);
+		}
+	}
+
+	/**
+	 * The name and player type lines a client opens with, under the
+	 * same limits the blocking Client sets.
+	 */
+	private static class Join implements Handler, Runnable {
+		private final Client client;
+		private final Connection conn;
+		private final int initTimeLimit;
+		private final CountDownLatch joined;
+		private boolean named, done;
+		private TimerWheel.Timer timer;
+
+		Join(Client client, Connection conn, int initTimeLimit, CountDownLatch joined)
+		{
+			this.client = client;
+			this.conn = conn;
+			this.initTimeLimit = initTimeLimit;
+			this.joined = joined;
+		}
+		public void run()
+		{
+			conn.handler = this;
+			try {
+				conn.register();
+			}
+			catch (IOException e) {
+				fail();
+				return;
+			}
+			timer = conn.loop.timers.schedule(System.nanoTime() + initTimeLimit * 1000000000L, new Runnable() {
+				public void run()
+				{ fail(); }
+			});
+		}
+		public void field(Connection c, Object field, long when)
+		{
+			if (done)
+				return;
+			timer.cancel();
+			if (!named) {
+				named = true;
+				client.name = field.toString();
+				timer = conn.loop.timers.schedule(System.nanoTime() + 10000000000L, new Runnable() {
+					public void run()
+					{ fail(); }
+				});
+			} else {
+				client.playerType(field.toString());
+				if (client.binary)
+					conn.binary = true;
+				finish();
+			}
+		}
+		public void closed(Connection c)
+		{ fail(); }
+		private void fail()
+		{
+			if (done)
+				return;
+			System.err.printf("init timeout %s%n", named ? client.name : "unnamed");
+			System.err.flush();
+			client.DQd = true;
+			if (named)
+				client.name += "DQd init";
+			else
+				client.name = "DQd on initialization";
+			finish();
+		}
+		private void finish()
+		{
+			done = true;
+			if (timer != null)
+				timer.cancel();
+			conn.handler = null;
+			joined.countDown();
+		}
+	}
+
+	private final ServerSocketChannel server;
+	private final Loop [] loops;
+	private final Thread [] threads;
+
+	/**
+	 * Starts the loops and listens on the port.
+	 * @param threads How many loops to run
+	 */
+	public NioServer(int port, int threads) throws IOException
+	{
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress(port));
+		loops = new Loop [Math.max(threads, 1)];
+		this.threads = new Thread [loops.length];
+		for (int i=0; i<loops.length; i++) {
+			loops[i] = new Loop();
+			this.threads[i] = new Thread(loops[i], "server loop " + i);
+			loops[i].thread = this.threads[i];
+			this.threads[i].setDaemon(true);
+			this.threads[i].start();
+		}
+	}
+	/**
+	 * Accepts count clients, dealing them out to the loops, which run
+	 * their handshakes side by side. Returns once every one has joined
+	 * or been DQd trying.
+	 */
+	public Client [] join(int count, int initTimeLimit, int pLimit, int fLimit,
+			int gLimit, int nWarnings) throws Exception
+	{
+		Client [] clients = new Client [count];
+		CountDownLatch joined = new CountDownLatch(count);
+		for (int i=0; i<count; i++) {
+			SocketChannel ch = server.accept();
+			ch.configureBlocking(false);
+			ch.socket().setTcpNoDelay(true);
+			Loop loop = loops[i % loops.length];
+			clients[i] = new Client(pLimit, fLimit, gLimit, nWarnings);
+			clients[i].conn = new Connection(ch, loop);
+			loop.execute(new Join(clients[i], clients[i].conn, initTimeLimit, joined));
+		}
+		joined.await();
+		server.close();
+		return clients;
+	}
+	/**
+	 * Starts a game on its home client's loop; the game goes on the
+	 * finished queue, with its result, once it is over.
+	 */
+	public void play(Scheduler.Game g, Client home, Client away, GameMove mv, GameState board,
+			BlockingQueue<Scheduler.Game> finished)
+	{
+		home.conn.loop.execute(new NioGame(g, home, away, mv, board, finished));
+	}
+	/**
+	 * Stops the loops once what they have to send is sent, and closes
+	 * every connection.
+	 */
+	public void shutdown() throws InterruptedException
+	{
+		for (Loop loop : loops) {
+			loop.stopping = true;
+			loop.selector.wakeup();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package game;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Precomputed moves for early positions, read straight from a file
+ * mapped into memory, so a book costs no heap and answers with a binary
+ * search over the mapping.
+ *
+ * The file is a sorted run of 16-byte big-endian entries:
+ *   long key, int move code (see GameMove.toCode), int weight
+ * where the key is a position hash as the game defines it (for Hex, the
+ * canonical key, which a position shares with its rotation) and the
+ * weight is how much search backs the move. Keys compare as signed longs.
+ */
+public class OpeningBook {
+	public static final int ENTRY_BYTES = 16;
+
+	private final ByteBuffer entries;
+	private final int size;
+	private int probes, hits;
+
+	private OpeningBook(ByteBuffer entries)
+	{
+		this.entries = entries;
+		size = entries.capacity() / ENTRY_BYTES;
+	}
+	/**
+	 * Maps a book file into memory.
+	 * @param fname Book file
+	 * @return The book, or null if there is no such file
+	 */
+	public static OpeningBook load(String fname) throws IOException
+	{
+		File file = new File(fname);
+		if (!file.isFile()) {
+			return null;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// the mapping stays valid once the file is closed
+			MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			map.load();
+			return new OpeningBook(map);
+		}
+		finally {
+			raf.close();
+		}
+	}
+	/**
+	 * @param key Position key
+	 * @return The entry's index, or -1 if the position isn't in the book
+	 */
+	private int find(long key)
+	{
+		int lo = 0, hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long k = entries.getLong(mid * ENTRY_BYTES);
+			if (k < key) {
+				lo = mid + 1;
+			} else if (k > key) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+	/**
+	 * @param key Position key
+	 * @return The book move's code, or -1 if the position isn't in the book
+	 */
+	public int lookup(long key)
+	{
+		probes++;
+		int i = find(key);
+		if (i < 0) {
+			return -1;
+		}
+		hits++;
+		return entries.getInt(i * ENTRY_BYTES + 8);
+	}
+	/**
+	 * @param key Position key
+	 * @return The book move's weight, or 0 if the position isn't in the book
+	 */
+	public int weight(long key)
+	{
+		int i = find(key);
+		return i < 0 ? 0 : entries.getInt(i * ENTRY_BYTES + 12);
+	}
+	public int size()
+	{ return size; }
+	public String toString()
+	{ return String.format("%d positions, %d of %d lookups found", size, hits, probes); }
+
+	/**
+	 * Writes a book file.
+	 * @param fname File to write
+	 * @param book Move code and weight by position key
+	 */
+	public static void write(String fname, Map<Long, int []> book) throws IOException
+	{
+		TreeMap<Long, int []> sorted = new TreeMap<Long, int []>(book);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fname)));
+		try {
+			for (Map.Entry<Long, int []> e : sorted.entrySet()) {
+				out.writeLong(e.getKey());
+				out.writeInt(e.getValue()[0]);
+				out.writeInt(e.getValue()[1]);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+}
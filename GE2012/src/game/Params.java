@@ -31,4 +31,19 @@ public class Params {
 	{ return Integer.parseInt(string(key)); }
 	public char character(String key)
 	{ return string(key).charAt(0); }
+	/**
+	 * @return The value of key, or def if the file doesn't set it
+	 */
+	public String string(String key, String def)
+	{ return map.containsKey(key) ? string(key) : def; }
+	/**
+	 * @return The value of key, or def if the file doesn't set it
+	 */
+	public int integer(String key, int def)
+	{ return map.containsKey(key) ? integer(key) : def; }
+	/**
+	 * @return The value of key, or def if the file doesn't set it
+	 */
+	public double real(String key, double def)
+	{ return map.containsKey(key) ? Double.parseDouble(string(key)) : def; }
 }
@@ -0,0 +1,328 @@
+package game;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Decides which game of a tournament to start next. The games still to
+ * play are counted by pairing, not kept in a list, and a client coming
+ * free only looks among the clients that are idle too, so picking a game
+ * costs time in the number of clients however long the schedule is.
+ *
+ * A client may play as many games at once as it has sessions (see
+ * Client.allowSessions); it is busy once they are all taken.
+ *
+ * With useRounds the games go in rounds instead, paired by the circle
+ * method: one client stays put and the rest turn round it, so each
+ * round has every client (but one, if there is an odd number) in a
+ * game, and every pairing comes up once, then again with the colours
+ * swapped. That repeats while any pairing has games left. There is no
+ * waiting for a round to end; each client keeps its own place and
+ * starts its next round's game as soon as that partner is free too.
+ *
+ * Also keeps the metrics: how long the dispatcher sat waiting for games
+ * to finish, how long it spent deciding, and what share of the clients'
+ * time went on games.
+ */
+public class Scheduler {
+	public static class Game {
+		public int h, a;
+		public int gameNum;
+		public int id;						// unique in the tournament, to tag its messages with
+		public GameState.Status result;		// filled in when the game is over
+		int round = -1;						// circle method round it belongs to, if in rounds
+		long start;
+		public Game(int h, int a, int n)
+		{
+			this.h = h;
+			this.a = a;
+			this.gameNum = n;
+		}
+	}
+
+	private final Client [] clients;
+	private final int [][] pending;		// games left to start, by home and away client
+	private final int [][] started;		// games started, which numbers the next one
+	private int remain;					// games not yet finished or dropped
+	private int running, limit;			// games going, and how many may be (0 for no limit)
+	private int [] round;				// each client's next round, or null when not in rounds
+	private int [] seat, atSeat;		// each client's place at the circle, and who is in each
+	private int seats, rounds;			// places, counting a bye if there's an odd number, and rounds in all
+	private boolean held;				// a game was held back by the limit
+	private final Random rand = new Random();
+
+	private final long begin = System.nanoTime();
+	private long end;
+	private final int [] playing;		// games each client is in
+	private int slots;					// sessions of every client added up
+	private long busyNanos, waitNanos, dispatchNanos;
+	private int games, dispatches;
+
+	/**
+	 * @param clients The tournament's clients; their busy flags are kept here from now on
+	 * @param pending How many games each pairing is to play, by home and away client
+	 */
+	public Scheduler(Client [] clients, int [][] pending)
+	{
+		this.clients = clients;
+		this.pending = pending;
+		started = new int [clients.length][clients.length];
+		playing = new int [clients.length];
+		for (Client c : clients) {
+			slots += c.sessions;
+		}
+		for (int [] row : pending) {
+			for (int n : row) {
+				remain += n;
+			}
+		}
+	}
+	/**
+	 * Caps how many games may go at once, on top of each client playing
+	 * one at a time.
+	 * @param limit Most games at once, 0 for no limit
+	 */
+	public void setLimit(int limit)
+	{ this.limit = limit; }
+	/**
+	 * Plays the games in circle method rounds from now on (see above).
+	 * Call before the first game is handed out.
+	 */
+	public void useRounds()
+	{
+		int n = clients.length;
+		seats = n + n % 2;
+		int most = 0;
+		for (int [] row : pending) {
+			for (int k : row) {
+				most = Math.max(most, k);
+			}
+		}
+		rounds = most * 2 * (seats - 1);
+		round = new int [n];
+		atSeat = shuffledClients();		// so who sits still is down to chance
+		seat = new int [n];
+		for (int i=0; i<n; i++) {
+			seat[atSeat[i]] = i;
+		}
+	}
+	/**
+	 * @return The client c plays in round r, or -1 for a bye
+	 */
+	private int partner(int c, int r)
+	{
+		int turn = seats - 1, s = r % turn;
+		int mine = seat[c], other;
+		if (mine == turn) {
+			other = s;
+		} else if (mine == s) {
+			other = turn;
+		} else {
+			// the pairs facing each other round the circle add up to 2s
+			other = ((2 * s - mine) % turn + turn) % turn;
+		}
+		return other < clients.length ? atSeat[other] : -1;
+	}
+	/**
+	 * @return true if c is home to partner d in round r
+	 */
+	private boolean homeIn(int c, int d, int r)
+	{
+		int turn = seats - 1, s = r % turn;
+		boolean home;
+		if (seat[c] == turn || seat[d] == turn) {
+			// the one sitting still changes colour every round
+			home = (seat[c] == turn) == (s % 2 == 0);
+		} else {
+			home = ((seat[c] - s) % turn + turn) % turn <= (turn - 1) / 2;
+		}
+		// the second half of each cycle has the colours the other way
+		boolean swap = (r / turn) % 2 == 1;
+		return home != swap;
+	}
+	/**
+	 * Moves c past rounds it has no game in: a bye, or a pairing that
+	 * has played or dropped all its games.
+	 * @return c's partner in the round it is now at, or -1 if it is through
+	 */
+	private int skip(int c)
+	{
+		for (; round[c] < rounds; round[c]++) {
+			int d = partner(c, round[c]);
+			if (d < 0)
+				continue;
+			boolean home = homeIn(c, d, round[c]);
+			if (home ? pending[c][d] > 0 : pending[d][c] > 0)
+				return d;
+		}
+		return -1;
+	}
+	/**
+	 * @return The game for c's current round, if its partner is free and
+	 *   has got there too
+	 */
+	private Game nextInRound(int c)
+	{
+		if (clients[c].busy)
+			return null;
+		int d = skip(c);
+		if (d < 0 || clients[d].busy || skip(d) != c || round[d] != round[c])
+			return null;
+		boolean home = homeIn(c, d, round[c]);
+		Game g = home ? take(c, d) : take(d, c);
+		g.round = round[c]++;
+		round[d]++;
+		return g;
+	}
+	/**
+	 * @return true, once, if a game was held back by the limit since last
+	 *   asked; then a finished game should offer every idle client a game,
+	 *   not just its own two
+	 */
+	public boolean wasHeld()
+	{
+		boolean h = held;
+		held = false;
+		return h;
+	}
+	/**
+	 * @return Games not yet finished or dropped
+	 */
+	public int remaining()
+	{ return remain; }
+	/**
+	 * @return The clients in a random order, for handing out the first games
+	 */
+	public int [] shuffledClients()
+	{
+		int [] order = new int [clients.length];
+		for (int i=0; i<order.length; i++) {
+			order[i] = i;
+		}
+		for (int i=order.length-1; i>0; i--) {
+			int j = rand.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+		return order;
+	}
+	/**
+	 * Picks a game for a client against any partner with a session free,
+	 * and takes a session of each.
+	 * @param c Client that has come free
+	 * @return The game to start, or null if c is busy or has no free partner left to play
+	 */
+	public Game next(int c)
+	{
+		long t0 = System.nanoTime();
+		Game g = null;
+		if (limit > 0 && running >= limit) {
+			held = true;
+		} else if (round != null) {
+			g = nextInRound(c);
+		} else if (!clients[c].busy) {
+			int n = clients.length;
+			int first = rand.nextInt(n);
+			for (int k=0; k<n && g == null; k++) {
+				int d = (first + k) % n;
+				if (d == c || clients[d].busy)
+					continue;
+				boolean home = pending[c][d] > 0, away = pending[d][c] > 0;
+				if (home && away) {
+					home = rand.nextBoolean();
+				}
+				if (home) {
+					g = take(c, d);
+				} else if (away) {
+					g = take(d, c);
+				}
+			}
+		}
+		dispatchNanos += System.nanoTime() - t0;
+		return g;
+	}
+	private Game take(int h, int a)
+	{
+		pending[h][a]--;
+		dispatches++;
+		running++;
+		playing[h]++;
+		playing[a]++;
+		clients[h].busy = playing[h] >= clients[h].sessions;
+		clients[a].busy = playing[a] >= clients[a].sessions;
+		Game g = new Game(h, a, started[h][a]++);
+		g.id = dispatches;
+		g.start = System.nanoTime();
+		return g;
+	}
+	/**
+	 * Frees the sessions of a game that is over.
+	 */
+	public void finished(Game g)
+	{
+		int h = g.h, a = g.a;
+		long now = System.nanoTime();
+		busyNanos += 2 * (now - g.start);
+		playing[h]--;
+		playing[a]--;
+		clients[h].busy = clients[a].busy = false;
+		running--;
+		remain--;
+		games++;
+		if (remain == 0)
+			end = now;
+	}
+	/**
+	 * Drops the games a pairing still had to play, once the result is no
+	 * longer in doubt.
+	 * @return How many were dropped
+	 */
+	public int drop(int h, int a)
+	{
+		int n = pending[h][a];
+		pending[h][a] = 0;
+		remain -= n;
+		if (remain == 0)
+			end = System.nanoTime();
+		return n;
+	}
+	/**
+	 * Waits for the next game to finish, counting the time as idle.
+	 */
+	public <T> T await(BlockingQueue<T> done) throws InterruptedException
+	{
+		long t0 = System.nanoTime();
+		try {
+			return done.take();
+		}
+		finally {
+			waitNanos += System.nanoTime() - t0;
+		}
+	}
+	/**
+	 * @return Share of the clients' session time spent in games so far
+	 */
+	public double utilisation()
+	{
+		long wall = (remain == 0 ? end : System.nanoTime()) - begin;
+		return wall <= 0 ? 0 : (double)busyNanos / wall / slots;
+	}
+	/**
+	 * @return The most utilisation could be: every session in a game but
+	 *   the odd one out, as far as the limit on games allows
+	 */
+	public double maxUtilisation()
+	{
+		int most = slots / 2;
+		if (limit > 0)
+			most = Math.min(most, limit);
+		return slots == 0 ? 0 : 2.0 * most / slots;
+	}
+	public String toString()
+	{
+		long wall = (remain == 0 ? end : System.nanoTime()) - begin;
+		return String.format("%d games in %.1f s%s: dispatcher idle %.1f s, deciding %.3f ms over %d starts, clients busy %.1f%% of a possible %.1f%%",
+				games, wall / 1e9, round == null ? "" : String.format(" (%d rounds)", rounds),
+				waitNanos / 1e9, dispatchNanos / 1e6, dispatches, 100 * utilisation(), 100 * maxUtilisation());
+	}
+}
@@ -0,0 +1,124 @@
+package game;
+import java.util.concurrent.*;
+
+/**
+ * One game's hold on a client, which is all GameThread talks to. A client
+ * playing one game at a time is read and written directly. One that plays
+ * several at once (see Client.allowSessions) has each of the game's
+ * messages sent behind a tag field naming the session, and answers the
+ * same way; its reader thread sorts the answers into each session's queue.
+ *
+ * The tag is the line "SESSION id count": the count fields after it
+ * belong to game id. DONE is never tagged, as it ends the whole client.
+ */
+public class Session {
+	public static final String TAG = "SESSION";
+	static final Object EOF = new Object();		// queued once the connection is gone
+
+	public final Client client;
+	public final int id;
+	final BlockingQueue<Object> in;				// answers, if multiplexed; otherwise null
+
+	Session(Client client, int id, boolean multiplexed)
+	{
+		this.client = client;
+		this.id = id;
+		in = multiplexed ? new LinkedBlockingQueue<Object>() : null;
+	}
+	/**
+	 * @return The tag for count fields belonging to session id
+	 */
+	public static String tag(int id, int count)
+	{ return TAG + " " + id + " " + count; }
+	public void simpleMsg(String... fields)
+	{
+		if (in == null) {
+			client.send(fields);
+			return;
+		}
+		String [] tagged = new String [fields.length + 1];
+		tagged[0] = tag(id, fields.length);
+		System.arraycopy(fields, 0, tagged, 1, fields.length);
+		client.send(tagged);
+	}
+	/**
+	 * @return The next answer, or null if none came in time or the
+	 *   connection is gone
+	 */
+	private Object poll(double seconds) throws InterruptedException
+	{
+		Object field = in.poll((long)(seconds * 1000), TimeUnit.MILLISECONDS);
+		if (field == EOF) {
+			in.add(EOF);		// for whoever asks next
+			return null;
+		}
+		return field;
+	}
+	public String hardLimitResponse(int seconds)
+	{
+		if (in == null)
+			return client.hardLimitResponse(seconds);
+		Object field = null;
+		try {
+			field = poll(seconds);
+		}
+		catch (InterruptedException e) {
+		}
+		if (field == null) {
+			System.err.printf("init timeout %s session %d%n", client.name, id);
+			System.err.flush();
+			return null;
+		}
+		return field.toString();
+	}
+	public double timedResponse(double seconds, GameMove move)
+	{
+		if (in == null)
+			return client.timedResponse(seconds, move);
+		long start = System.currentTimeMillis();
+		try {
+			Object field = poll(seconds);
+			if (field == null) {
+				throw new java.io.EOFException();
+			}
+			if (field instanceof Integer) {
+				move.parseCode((Integer)field);
+			} else {
+				move.parseMove((String)field);
+			}
+			long diff = System.currentTimeMillis() - start;
+			simpleMsg("TIME", String.format("%.3f", diff/1000.0));
+			return diff / 1000.0;
+		}
+		catch (Exception e) {
+			System.err.printf("timeout %s%n", client.name);
+			return -1;
+		}
+	}
+	/**
+	 * Reads up to the client's OVER, skipping whatever it sent first.
+	 */
+	public void flush()
+	{
+		try {
+			if (in == null) {
+				String cmd = client.channel.readLine();
+				while (!cmd.equals("OVER")) {
+					cmd = client.channel.readLine();
+				}
+			} else {
+				Object field = poll(10);
+				while (field != null && !field.equals("OVER")) {
+					field = poll(10);
+				}
+			}
+		}
+		catch (Exception e) {
+		}
+	}
+	/**
+	 * Stops taking answers for this game.
+	 */
+	public void close()
+	{ client.close(this); }
+}
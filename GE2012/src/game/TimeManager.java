@@ -0,0 +1,121 @@
+package game;
+
+/**
+ * Budgets a player's thinking time against the limits GameThread
+ * enforces: a warning for a move over MOVETIME, a DQ for one over
+ * MAXMOVETIME or over what is left of GAMETIME.
+ * The remaining clock is tracked from the server's TIME replies. The
+ * server times a move from sending MOVE to receiving the answer, so it
+ * also counts the network and our own parsing; that overhead is
+ * measured as the gap between its figure and ours, and kept back from
+ * every deadline.
+ * GamePlayer.compete feeds it when the player sets timeManager, and
+ * runs getMove under a watchdog set to watchdogDeadline; an engine
+ * calls startMove at the top of getMove and then searches until
+ * softDeadline, or at most hardDeadline when it is unsure.
+ */
+public class TimeManager {
+	public final double moveTime, gameTime, maxMoveTime;
+	/** Seconds kept back from every limit, on top of the overhead. */
+	public double safety = 0.25;
+	/** Never plan as if fewer moves than this were left. */
+	public int minMovesLeft = 10;
+
+	private double remaining;
+	private double overhead;
+	private long received, moveStart, sent;
+	private long soft, hard;
+
+	public TimeManager(double moveTime, double gameTime, double maxMoveTime)
+	{
+		this.moveTime = moveTime;
+		this.gameTime = gameTime;
+		this.maxMoveTime = maxMoveTime;
+		startGame();
+	}
+	/**
+	 * @param gameParams Parameters with MOVETIME, GAMETIME and MAXMOVETIME
+	 */
+	public TimeManager(Params gameParams)
+	{
+		this(gameParams.integer("MOVETIME"), gameParams.integer("GAMETIME"),
+				gameParams.integer("MAXMOVETIME"));
+	}
+	public void startGame()
+	{
+		remaining = gameTime;
+		received = 0;
+	}
+	/**
+	 * Called as soon as MOVE arrives; the server's clock is already running.
+	 */
+	public void moveReceived()
+	{ received = System.nanoTime(); }
+	/**
+	 * Plans the move about to be searched.
+	 * @param movesLeft Estimate of the moves this player still has to make
+	 */
+	public void startMove(int movesLeft)
+	{
+		long now = System.nanoTime();
+		moveStart = (received != 0 && received <= now ? received : now);
+		received = 0;
+		double reserve = overhead + safety;
+		double hardSecs = Math.min(Math.min(moveTime, maxMoveTime), remaining) - reserve;
+		int moves = Math.max(movesLeft, minMovesLeft);
+		double softSecs = (remaining - moves * reserve) / moves;
+		hardSecs = Math.max(hardSecs, 0);
+		softSecs = Math.max(Math.min(softSecs, hardSecs), 0);
+		soft = moveStart + (long)(softSecs * 1e9);
+		hard = moveStart + (long)(hardSecs * 1e9);
+	}
+	/**
+	 * @return System.nanoTime() by which a search should normally stop
+	 */
+	public long softDeadline()
+	{ return soft; }
+	/**
+	 * @return System.nanoTime() after which the move must already be sent
+	 */
+	public long hardDeadline()
+	{ return hard; }
+	/**
+	 * When a move still being thought about must be replaced by whatever
+	 * is at hand, to stay clear of a DQ. Call once MOVE has arrived and
+	 * before startMove.
+	 * @param margin Seconds to keep back, on top of the overhead
+	 * @return System.nanoTime() of the deadline
+	 */
+	public long watchdogDeadline(double margin)
+	{
+		long start = (received != 0 ? received : System.nanoTime());
+		double secs = Math.min(maxMoveTime, remaining) - overhead - margin;
+		return start + (long)(Math.max(secs, 0) * 1e9);
+	}
+	public void moveSent()
+	{ sent = System.nanoTime(); }
+	/**
+	 * Takes the server's time for the last move.
+	 * @param secs Seconds the server charged
+	 */
+	public void timeReply(double secs)
+	{
+		remaining -= secs;
+		if (sent > moveStart && moveStart != 0) {
+			double gap = Math.max(secs - (sent - moveStart) / 1e9, 0);
+			// jump up at once, come down slowly
+			overhead = Math.max(gap, 0.8 * overhead + 0.2 * gap);
+		}
+		moveStart = sent = 0;
+	}
+	/**
+	 * @return Seconds left on the game clock, as the server sees it
+	 */
+	public double getRemaining()
+	{ return remaining; }
+	/**
+	 * @return Estimated seconds the server adds to each move
+	 */
+	public double getOverhead()
+	{ return overhead; }
+}
@@ -0,0 +1,121 @@
+package game;
+import java.util.*;
+
+/**
+ * Deadlines for an event loop, kept in a hashed wheel: a ring of slots
+ * each covering one tick, a timer going in the slot its deadline falls
+ * in. Scheduling and cancelling are O(1), and advancing looks only at
+ * the slots whose ticks have passed. A timer more than a turn of the
+ * wheel away just stays in its slot until a later turn reaches it.
+ * Timers fire at most a tick late, never early.
+ *
+ * Not thread-safe: every call must come from the loop that owns it.
+ */
+public class TimerWheel {
+	public static class Timer {
+		private final long deadline;
+		private final Runnable task;
+		private boolean cancelled;
+		private Timer(long deadline, Runnable task)
+		{
+			this.deadline = deadline;
+			this.task = task;
+		}
+		/**
+		 * Stops the timer from firing; harmless if it already has.
+		 */
+		public void cancel()
+		{ cancelled = true; }
+		public boolean isCancelled()
+		{ return cancelled; }
+	}
+
+	private final long tick;
+	private final List<ArrayList<Timer>> slots;
+	private long current;		// the next tick to process, counted from time 0 of nanoTime
+	private int size;
+
+	/**
+	 * @param tickNanos Length of a slot
+	 * @param count Number of slots
+	 */
+	public TimerWheel(long tickNanos, int count)
+	{
+		tick = tickNanos;
+		slots = new ArrayList<ArrayList<Timer>>(count);
+		for (int i=0; i<count; i++) {
+			slots.add(new ArrayList<Timer>());
+		}
+		current = System.nanoTime() / tick;
+	}
+	/**
+	 * @param deadline System.nanoTime() to fire at
+	 * @param task What to run then, on the loop that calls advance
+	 */
+	public Timer schedule(long deadline, Runnable task)
+	{
+		Timer t = new Timer(deadline, task);
+		// anything already due goes in the next slot processed
+		long at = Math.max(deadline / tick, current);
+		slot(at).add(t);
+		size++;
+		return t;
+	}
+	/**
+	 * @return The slot a tick falls in; nanoTime, and so the tick, may be negative
+	 */
+	private ArrayList<Timer> slot(long at)
+	{
+		int n = slots.size();
+		return slots.get((int)(((at % n) + n) % n));
+	}
+	/**
+	 * @return Timers still waiting, including cancelled ones not yet swept
+	 */
+	public int size()
+	{ return size; }
+	/**
+	 * @return Milliseconds until the next tick is due (at least 1), or 0
+	 *   if there are no timers, in the style of Selector.select
+	 */
+	public long delayMillis(long now)
+	{
+		if (size == 0)
+			return 0;
+		long wait = current * tick + tick - now;
+		return Math.max(1, (wait + 999999) / 1000000);
+	}
+	/**
+	 * Runs every timer due by now.
+	 */
+	public void advance(long now)
+	{
+		long last = now / tick;
+		// a long stall needn't visit the same slot twice
+		if (last - current >= slots.size())
+			current = last - slots.size() + 1;
+		for (;; current++) {
+			ArrayList<Timer> slot = slot(current);
+			int keep = 0;
+			// tasks may schedule more into this slot as it goes, and those are swept too
+			for (int i=0; i<slot.size(); i++) {
+				Timer t = slot.get(i);
+				if (t.cancelled) {
+					size--;
+				} else if (t.deadline <= now) {
+					size--;
+					t.cancelled = true;
+					t.task.run();
+				} else {
+					slot.set(keep++, t);
+				}
+			}
+			while (slot.size() > keep) {
+				slot.remove(slot.size() - 1);
+			}
+			// the tick now is in has only partly passed, so it is looked at again next time
+			if (current == last)
+				break;
+		}
+	}
+}
@@ -4,26 +4,21 @@ import hex.HexState;
 
 import java.io.File;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.*;
 
 public class Tournament {
 	public static Params tournamentParams;
 	public static Params gameParams;
 
 	public static Client [] clients;
-	public static ArrayList<GameThread> threads;
+	public static Scheduler scheduler;
 
-	private static class Game {
-		public int h, a;
-		public int gameNum;
-		public Game(int h, int a, int n)
-		{
-			this.h = h;
-			this.a = a;
-			this.gameNum = n;
-		}
-	}
+	private static ExecutorService pool;		// runs GameThreads on the blocking server, virtual threads if SERVER=VIRTUAL
+	private static NioServer nio;				// or the non-blocking server runs the games itself
+	private static BlockingQueue<Scheduler.Game> finished;	// games over, in the order they ended
 
 	private static String printableName(String name)
 	{
@@ -32,22 +27,29 @@ public class Tournament {
 		else
 			return name.substring(0, 13);
 	}
-	private static int randInt(int lo, int hi)
-	{
-		int delta = hi - lo + 1;
-		return (int)(Math.random() * delta) + lo;
-	}
-
-	private static void shuffle(ArrayList<Game> list)
+	/**
+	 * Starts every game client c can play right now against an idle partner.
+	 */
+	private static void dispatch(int c, GameState st, GameMove move)
 	{
-		int sz = list.size();
-		for (int i=0; i<sz; i++) {
-			int newSpot = randInt(i, sz-1);
-
-			Game old = list.get(i);
-			Game neww = list.get(newSpot);
-			list.set(i, neww);
-			list.set(newSpot, old);
+		Scheduler.Game g;
+		while ((g = scheduler.next(c)) != null) {
+			if (nio != null) {
+				nio.play(g, clients[g.h], clients[g.a], (GameMove)move.clone(), (GameState)st.clone(), finished);
+			} else {
+				final Scheduler.Game done = g;
+				final GameThread game = new GameThread(clients[g.h], g.h, clients[g.a], g.a,
+						g.gameNum, g.id, move.clone(), st.clone());
+				pool.execute(new Runnable() {
+					public void run()
+					{
+						game.run();
+						done.result = game.result;
+						finished.add(done);
+					}
+				});
+			}
+			System.out.printf("%s-%s (%d)%n", clients[g.h].name, clients[g.a].name, scheduler.remaining());
 		}
 	}
 	public static boolean randomTeam(int t)
@@ -82,15 +84,50 @@ public class Tournament {
 		int homeSummary[][] = new int [NUM_CLIENTS][3];
 		int awaySummary[][] = new int [NUM_CLIENTS][3];
 		int totalSummary[][] = new int [NUM_CLIENTS][3];
-		ArrayList<Game> schedule = new ArrayList<Game>();
-		threads = new ArrayList<GameThread>();
+		int [][] schedule = new int [NUM_CLIENTS][NUM_CLIENTS];
+		// each game finishing wakes the dispatcher at once
+		finished = new LinkedBlockingQueue<Scheduler.Game>();
 
 		try {
-			ServerSocket socket = new ServerSocket(PORT);
-			clients = new Client [NUM_CLIENTS];
-			for (i=0; i<NUM_CLIENTS; i++) {
-				clients[i] = new Client(socket, INIT_LIMIT, MOVE_LIMIT, FINAL_PLAY_LIMIT,
+			if (tournamentParams.string("SERVER", "THREADS").equals("NIO")) {
+				nio = new NioServer(PORT, tournamentParams.integer("NIOTHREADS", 2));
+				clients = nio.join(NUM_CLIENTS, INIT_LIMIT, MOVE_LIMIT, FINAL_PLAY_LIMIT,
 						GAME_LIMIT, MAX_WARNINGS);
+			} else if (tournamentParams.string("SERVER", "THREADS").equals("VIRTUAL")) {
+				// a thread per game and per handshake, but virtual ones, which cost little to block
+				pool = VirtualThreads.executor("game");
+				System.out.println(VirtualThreads.available() ? "Games on virtual threads"
+						: "No virtual threads in this JVM, games on platform threads");
+				ServerSocket socket = new ServerSocket(PORT);
+				ArrayList<Future<Client>> joining = new ArrayList<Future<Client>>();
+				for (i=0; i<NUM_CLIENTS; i++) {
+					final Socket sock = socket.accept();
+					final int initLimit = INIT_LIMIT, moveLimit = MOVE_LIMIT, finalLimit = FINAL_PLAY_LIMIT,
+							gameLimit = GAME_LIMIT, maxWarnings = MAX_WARNINGS;
+					joining.add(pool.submit(new Callable<Client>() {
+						public Client call() throws Exception
+						{ return new Client(sock, initLimit, moveLimit, finalLimit, gameLimit, maxWarnings); }
+					}));
+				}
+				socket.close();
+				clients = new Client [NUM_CLIENTS];
+				for (i=0; i<NUM_CLIENTS; i++) {
+					clients[i] = joining.get(i).get();
+				}
+			} else {
+				// games run on pooled threads
+				pool = Executors.newCachedThreadPool();
+				ServerSocket socket = new ServerSocket(PORT);
+				clients = new Client [NUM_CLIENTS];
+				for (i=0; i<NUM_CLIENTS; i++) {
+					clients[i] = new Client(socket, INIT_LIMIT, MOVE_LIMIT, FINAL_PLAY_LIMIT,
+							GAME_LIMIT, MAX_WARNINGS);
+				}
+			}
+			for (i=0; i<NUM_CLIENTS; i++) {
+				// several games at once on one client, on the blocking servers only
+				if (nio == null)
+					clients[i].allowSessions(tournamentParams.integer("SESSIONS", 1), pool);
 				if (clients[i].name.toUpperCase().contains("HUMAN")) {
 					clients[i].moveLimit = clients[i].finalPlayLimit = gameParams.integer("HUMANTIME");  
 					clients[i].gameTimeLimit = 10000;  
@@ -103,107 +140,97 @@ public class Tournament {
 			for (p1=0; p1<NUM_CLIENTS; p1++) {
 				for (p2=0; p2<NUM_CLIENTS; p2++) {
 					if (p1 == p2) continue;
-					int numToPlay;
 					if (stochasticGame(p1, p2)) {
-						numToPlay = NUM_GAMES;
+						schedule[p1][p2] = NUM_GAMES;
 					} else {
-						numToPlay = 1;
-					}
-					for (i=0; i<numToPlay; i++) {
-						schedule.add(new Game(p1, p2, i));
+						schedule[p1][p2] = 1;
 					}
 				}
 			}
-			shuffle(schedule);
+			scheduler = new Scheduler(clients, schedule);
+			scheduler.setLimit(tournamentParams.integer("MAXGAMES", 0));
+			if (tournamentParams.string("SCHEDULE", "GREEDY").equals("ROUNDS"))
+				scheduler.useRounds();
+			int consecWins = Tournament.tournamentParams.integer("CONSECWINS");
 
-			int remain = schedule.size();
+			for (int c : scheduler.shuffledClients()) {
+				dispatch(c, st, move);
+			}
+			while (scheduler.remaining() > 0) {
+				Scheduler.Game t = scheduler.await(finished);
+				p1 = t.h;
+				p2 = t.a;
+				scheduler.finished(t);
+				GameState.Status outcome = t.result;
 
-			while (remain > 0) {
-				Thread.sleep(500);
-				boolean cont = true;
-				while (cont) {
-					cont = false;
-					for (i=0; i<schedule.size(); i++) {
-						Game g = schedule.get(i);
-						p1 = g.h;
-						p2 = g.a;
-						int consecWins = Tournament.tournamentParams.integer("CONSECWINS");
-						if ((headToHeadSummary[p1][p2][0] >= consecWins &&
-								headToHeadSummary[p1][p2][1] + headToHeadSummary[p1][p2][2] == 0) ||
-								(headToHeadSummary[p1][p2][0] + headToHeadSummary[p1][p2][2] == 0 && 
-								headToHeadSummary[p1][p2][1] >= consecWins)) {
-							schedule.remove(i);
-							remain--;
-							if (headToHeadSummary[p1][p2][0] == 0) {
-								headToHeadSummary[p1][p2][1]++; 
-								homeSummary[p1][1]++;
-								awaySummary[p2][0]++;
-								totalSummary[p1][1]++;
-								totalSummary[p2][0]++;
-							} else {
-								headToHeadSummary[p1][p2][0]++; 
-								homeSummary[p1][0]++;
-								awaySummary[p2][1]++;
-								totalSummary[p1][0]++;
-								totalSummary[p2][1]++;
-							}
-						} else if (!clients[g.h].busy && !clients[g.a].busy) {
-							GameThread game = new GameThread(clients[g.h], g.h, clients[g.a], g.a,
-									g.gameNum, move.clone(), st.clone());
-							game.start();
-							clients[g.h].busy = clients[g.a].busy = true;
-							threads.add(game);
-							schedule.remove(i);
-							System.out.printf("%s-%s (%d)%n", clients[g.h].name, clients[g.a].name, remain);
-							cont = true;
-						}
-					}
+				int cnt = stochasticGame(p1, p2) ? 1 : NUM_GAMES;
+				if (outcome == GameState.Status.HOME_WIN) {
+					System.out.printf("home (%s) won%n", clients[p1].name);
+					headToHeadSummary[p1][p2][0] += cnt;
+					awaySummary[p2][1] += cnt;
+					homeSummary[p1][0] += cnt;
+					totalSummary[p1][0] += cnt;
+					totalSummary[p2][1] += cnt;
+				} else if (outcome == GameState.Status.AWAY_WIN) {
+					System.out.printf("away (%s) won%n", clients[p2].name);
+					headToHeadSummary[p1][p2][1] += cnt;
+					awaySummary[p2][0] += cnt;
+					homeSummary[p1][1] += cnt;
+					totalSummary[p1][1] += cnt;
+					totalSummary[p2][0] += cnt;
+				} else if (outcome == GameState.Status.DRAW) {
+					System.out.println(" draw\n");
+					headToHeadSummary[p1][p2][2] += cnt;
+					awaySummary[p2][2] += cnt;
+					homeSummary[p1][2] += cnt;
+					totalSummary[p1][2] += cnt;
+					totalSummary[p2][2] += cnt;
+				} else {
+					System.err.println("Error with game outcome");
 				}
-				i = 0;
-				while (i<threads.size()) {
-					GameThread t = threads.get(i);
-					if (t.isAlive()) {
-						i++;
-					} else {
-						p1 = t.homeID;
-						p2 = t.awayID;
-						clients[p1].busy = clients[p2].busy = false;
-						GameState.Status outcome = t.result;
-						threads.remove(i);
-						remain--;
 
-						int cnt = stochasticGame(p1, p2) ? 1 : NUM_GAMES;
-						if (outcome == GameState.Status.HOME_WIN) {
-							System.out.printf("home (%s) won%n", clients[p1].name);
-							headToHeadSummary[p1][p2][0] += cnt;
-							awaySummary[p2][1] += cnt;
-							homeSummary[p1][0] += cnt;
-							totalSummary[p1][0] += cnt;
-							totalSummary[p2][1] += cnt;
-						} else if (outcome == GameState.Status.AWAY_WIN) {
-							System.out.printf("away (%s) won%n", clients[p2].name);
-							headToHeadSummary[p1][p2][1] += cnt;
-							awaySummary[p2][0] += cnt;
-							homeSummary[p1][1] += cnt;
-							totalSummary[p1][1] += cnt;
-							totalSummary[p2][0] += cnt;
-						} else if (outcome == GameState.Status.DRAW) {
-							System.out.println(" draw\n");
-							headToHeadSummary[p1][p2][2] += cnt;
-							awaySummary[p2][2] += cnt;
-							homeSummary[p1][2] += cnt;
-							totalSummary[p1][2] += cnt;
-							totalSummary[p2][2] += cnt;
+				// a pairing won every time so far needn't play out the rest
+				if ((headToHeadSummary[p1][p2][0] >= consecWins &&
+						headToHeadSummary[p1][p2][1] + headToHeadSummary[p1][p2][2] == 0) ||
+						(headToHeadSummary[p1][p2][0] + headToHeadSummary[p1][p2][2] == 0 && 
+						headToHeadSummary[p1][p2][1] >= consecWins)) {
+					int skipped = scheduler.drop(p1, p2);
+					for (i=0; i<skipped; i++) {
+						if (headToHeadSummary[p1][p2][0] == 0) {
+							headToHeadSummary[p1][p2][1]++; 
+							homeSummary[p1][1]++;
+							awaySummary[p2][0]++;
+							totalSummary[p1][1]++;
+							totalSummary[p2][0]++;
 						} else {
-							System.err.println("Error with game outcome");
+							headToHeadSummary[p1][p2][0]++; 
+							homeSummary[p1][0]++;
+							awaySummary[p2][1]++;
+							totalSummary[p1][0]++;
+							totalSummary[p2][1]++;
 						}
 					}
 				}
+
+				dispatch(p1, st, move);
+				dispatch(p2, st, move);
+				if (scheduler.wasHeld()) {
+					// the limit kept others waiting, not just these two
+					for (int c : scheduler.shuffledClients()) {
+						dispatch(c, st, move);
+					}
+				}
 			}
+			System.out.println("Scheduler: " + scheduler);
 
 			for (int j=0; j<NUM_CLIENTS; j++) {
 				clients[j].simpleMsg("DONE");
 			}
+			if (nio != null) {
+				nio.shutdown();		// once DONE has gone out
+			} else {
+				pool.shutdown();
+			}
 			System.out.printf("%13s ", "");
 			for (p1=0; p1<NUM_CLIENTS; p1++) {
 				System.out.printf("%13s ", printableName(clients[p1].name));
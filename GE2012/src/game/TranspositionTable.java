@@ -0,0 +1,149 @@
+package game;
+import java.util.*;
+
+/**
+ * Fixed-size cache of results keyed by 64-bit position hashes (see
+ * GameState.getHashKey), shared by any number of threads without locks.
+ *
+ * Every entry is two longs in one array: the key XORed with the data,
+ * then the data. Writes of the two halves may interleave between
+ * threads, but a torn entry no longer XORs back to its key, so readers
+ * simply see a miss. The data holds a 48-bit payload, chosen by the
+ * caller, with the depth it was worked out to and the search age it was
+ * stored in.
+ *
+ * Entries sit in buckets of two. A store overwrites its own key if that
+ * is already there, otherwise whichever entry of the bucket is from an
+ * older search, or failing that the shallower one.
+ *
+ * Hit counts are kept without synchronization, so with several threads
+ * they are only approximate.
+ */
+public class TranspositionTable {
+	/** Returned by probe when the key isn't in the table. */
+	public static final long MISS = -1;
+	public static final long MAX_PAYLOAD = (1L << 48) - 1;
+	public static final int MAX_DEPTH = 255;
+
+	private static final int DEPTH_SHIFT = 48, AGE_SHIFT = 56;
+	private static final long USED = 1L << 63;		// so that no stored data is 0, which an empty slot would match
+
+	private final long [] slots;
+	private final int bucketMask;
+	private int age;
+	private long probes, hits, stores;
+
+	/**
+	 * @param megabytes Memory to take, rounded down to a power of two
+	 */
+	public TranspositionTable(int megabytes)
+	{
+		long entries = Math.max((long)megabytes << 20, 64) / 16;
+		int buckets = (int)Math.min(Long.highestOneBit(entries / 2), 1 << 28);
+		slots = new long [buckets * 4];
+		bucketMask = buckets - 1;
+	}
+	/**
+	 * @param params Parameters that may set TTMEGABYTES
+	 * @param def Megabytes to take if they don't
+	 */
+	public TranspositionTable(Params params, int def)
+	{
+		this(params.integer("TTMEGABYTES", def));
+	}
+	/**
+	 * Starts a new search: entries from earlier ones are replaced first.
+	 */
+	public void newSearch()
+	{ age = (age + 1) & 0x7f; }
+	/**
+	 * @param key Position hash
+	 * @return The payload stored for key, or MISS
+	 */
+	public long probe(long key)
+	{
+		probes++;
+		int base = bucket(key);
+		for (int i=base; i<base+4; i+=2) {
+			long data = slots[i + 1];
+			if ((slots[i] ^ data) == key && data != 0) {
+				hits++;
+				return data & MAX_PAYLOAD;
+			}
+		}
+		return MISS;
+	}
+	/**
+	 * @param key Position hash
+	 * @param payload Value to keep, 0 to MAX_PAYLOAD
+	 * @param depth How much work the payload stands for, 0 to MAX_DEPTH;
+	 *   deeper entries are kept over shallower ones
+	 */
+	public void store(long key, long payload, int depth)
+	{
+		stores++;
+		long data = USED | (long)age << AGE_SHIFT | (long)Math.min(depth, MAX_DEPTH) << DEPTH_SHIFT
+				| (payload & MAX_PAYLOAD);
+		int base = bucket(key);
+		int victim = base;
+		for (int i=base; i<base+4; i+=2) {
+			long old = slots[i + 1];
+			if ((slots[i] ^ old) == key || old == 0) {
+				victim = i;
+				break;
+			}
+			if (i != base && worse(old, slots[victim + 1]))
+				victim = i;
+		}
+		slots[victim] = key ^ data;
+		slots[victim + 1] = data;
+	}
+	/**
+	 * @return true if entry a should go before entry b
+	 */
+	private boolean worse(long a, long b)
+	{
+		boolean aOld = ageOf(a) != age, bOld = ageOf(b) != age;
+		if (aOld != bOld)
+			return aOld;
+		return depthOf(a) < depthOf(b);
+	}
+	private static int ageOf(long data)
+	{ return (int)(data >>> AGE_SHIFT) & 0x7f; }
+	private static int depthOf(long data)
+	{ return (int)(data >>> DEPTH_SHIFT) & 0xff; }
+	private int bucket(long key)
+	{
+		// the low bits go to the bucket, so mix the high ones in
+		return (int)((key ^ key >>> 32) & bucketMask) * 4;
+	}
+	/**
+	 * Empties the table and its counts.
+	 */
+	public void clear()
+	{
+		Arrays.fill(slots, 0);
+		probes = hits = stores = 0;
+	}
+	public long getProbes()
+	{ return probes; }
+	public long getHits()
+	{ return hits; }
+	public long getStores()
+	{ return stores; }
+	/**
+	 * @return Fraction of probes that found their key
+	 */
+	public double hitRate()
+	{ return probes == 0 ? 0 : (double)hits / probes; }
+	/**
+	 * @return Bytes held by the table
+	 */
+	public long memory()
+	{ return (long)slots.length * 8; }
+	public String toString()
+	{
+		return String.format("%d probes, %.1f%% hits, %d stores, %d entries in %.1f MB",
+				probes, 100 * hitRate(), stores, slots.length / 2, memory() / 1048576.0);
+	}
+}
@@ -0,0 +1,57 @@
+package game;
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+
+/**
+ * Runs tasks on Java 21 virtual threads when the JVM has them, or on
+ * ordinary platform threads when it doesn't. The virtual thread executor
+ * is looked up by reflection, so this builds and runs on older JVMs too.
+ *
+ * A virtual thread parked in a blocking socket read costs a few hundred
+ * bytes instead of a platform thread's stack, so the blocking server
+ * code (GameThread, Client) can run thousands of games at once as is.
+ */
+public class VirtualThreads {
+	private static final Method NEW_EXECUTOR;		// Executors.newVirtualThreadPerTaskExecutor()
+
+	static {
+		Method m = null;
+		try {
+			m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		}
+		catch (NoSuchMethodException e) {
+			// before Java 21
+		}
+		NEW_EXECUTOR = m;
+	}
+	/**
+	 * @return true if the JVM has virtual threads
+	 */
+	public static boolean available()
+	{ return NEW_EXECUTOR != null; }
+	/**
+	 * @param name Name for the platform threads, if it comes to that
+	 * @return An executor starting a virtual thread per task, or failing
+	 *   that a cached pool of daemon platform threads
+	 */
+	public static ExecutorService executor(final String name)
+	{
+		if (NEW_EXECUTOR != null) {
+			try {
+				return (ExecutorService)NEW_EXECUTOR.invoke(null);
+			}
+			catch (Exception e) {
+				System.err.println("No virtual threads: " + e);
+			}
+		}
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			private int count;
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, name + " " + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+}
@@ -0,0 +1,165 @@
+package hex;
+
+/**
+ * Bitset representation of a Hex board, one long[] per side. Cell (r, c)
+ * is bit r * S + c with S = N + 1; the spare column at c == N is never
+ * set, so the six neighbor directions become plain shifts by 1, N and
+ * N + 1 followed by a mask, without wrapping from one row into the next.
+ */
+public class HexBitboard {
+	public final int N, S, WORDS;
+	public final long [][] stones;
+	private final long [] valid, top, bottom, left, right;
+	private final long [] reach, grown;
+
+	public HexBitboard(int n)
+	{
+		N = n;
+		S = N + 1;
+		WORDS = (N * S + 63) / 64;
+		stones = new long [2][WORDS];
+		valid = new long [WORDS];
+		top = new long [WORDS];
+		bottom = new long [WORDS];
+		left = new long [WORDS];
+		right = new long [WORDS];
+		reach = new long [WORDS];
+		grown = new long [WORDS];
+		for (int i=0; i<N; i++) {
+			for (int j=0; j<N; j++) {
+				setBit(valid, bit(i, j));
+			}
+			setBit(top, bit(0, i));
+			setBit(bottom, bit(N-1, i));
+			setBit(left, bit(i, 0));
+			setBit(right, bit(i, N-1));
+		}
+	}
+	public int bit(int r, int c)
+	{ return r * S + c; }
+	private static void setBit(long [] set, int b)
+	{ set[b >>> 6] |= 1L << b; }
+	private static boolean testBit(long [] set, int b)
+	{ return (set[b >>> 6] & (1L << b)) != 0; }
+	public void clear()
+	{
+		for (int i=0; i<WORDS; i++) {
+			stones[0][i] = stones[1][i] = 0;
+		}
+	}
+	public void copy(HexBitboard src)
+	{
+		System.arraycopy(src.stones[0], 0, stones[0], 0, WORDS);
+		System.arraycopy(src.stones[1], 0, stones[1], 0, WORDS);
+	}
+	/**
+	 * @param which 0 for HOME, 1 for AWAY
+	 */
+	public boolean has(int which, int r, int c)
+	{ return testBit(stones[which], bit(r, c)); }
+	public boolean isEmpty(int r, int c)
+	{
+		int b = bit(r, c);
+		return ((stones[0][b >>> 6] | stones[1][b >>> 6]) & (1L << b)) == 0;
+	}
+	public void set(int which, int r, int c)
+	{ setBit(stones[which], bit(r, c)); }
+	public void unset(int which, int r, int c)
+	{
+		int b = bit(r, c);
+		stones[which][b >>> 6] &= ~(1L << b);
+	}
+	/**
+	 * Flood fills one side's stones outward from its first border.
+	 * Each pass grows the reached set by one ring of neighbors using six
+	 * shifted copies, so the cost is a few word operations per pass.
+	 * @param which 0 for HOME (top to bottom), 1 for AWAY (left to right)
+	 * @return true if the side's stones join its two borders
+	 */
+	public boolean connects(int which)
+	{
+		long [] own = stones[which];
+		long [] from = (which == 0 ? top : left);
+		long [] to = (which == 0 ? bottom : right);
+		boolean any = false;
+		for (int i=0; i<WORDS; i++) {
+			reach[i] = own[i] & from[i];
+			any |= reach[i] != 0;
+		}
+		if (!any)
+			return false;
+		boolean changed = true;
+		while (changed) {
+			for (int i=0; i<WORDS; i++) {
+				if ((reach[i] & to[i]) != 0)
+					return true;
+			}
+			neighbors(reach, grown);
+			changed = false;
+			for (int i=0; i<WORDS; i++) {
+				long next = (reach[i] | grown[i]) & own[i];
+				changed |= next != reach[i];
+				reach[i] = next;
+			}
+		}
+		return false;
+	}
+	/**
+	 * @return 0 if HOME has connected its borders, 1 if AWAY has, else -1
+	 */
+	public int winner()
+	{
+		if (connects(0))
+			return 0;
+		else if (connects(1))
+			return 1;
+		return -1;
+	}
+	/**
+	 * Computes every on-board cell adjacent to some cell of a set.
+	 * @param src Set to expand
+	 * @param dst Receives the neighbors (src itself is not included)
+	 */
+	public void neighbors(long [] src, long [] dst)
+	{
+		for (int i=0; i<WORDS; i++) {
+			long lo1 = (i > 0 ? src[i-1] : 0);
+			long hi1 = (i < WORDS-1 ? src[i+1] : 0);
+			dst[i] = shiftUp(src[i], lo1, 1) | shiftDown(src[i], hi1, 1) |
+					shiftUp(src[i], lo1, N) | shiftDown(src[i], hi1, N) |
+					shiftUp(src[i], lo1, S) | shiftDown(src[i], hi1, S);
+			dst[i] &= valid[i];
+		}
+	}
+	// word of (set << k) given the word itself and the word below it
+	private static long shiftUp(long word, long below, int k)
+	{ return (word << k) | (below >>> (64 - k)); }
+	// word of (set >>> k) given the word itself and the word above it
+	private static long shiftDown(long word, long above, int k)
+	{ return (word >>> k) | (above << (64 - k)); }
+	public boolean equals(Object other)
+	{
+		if (!(other instanceof HexBitboard)) {
+			return false;
+		}
+		HexBitboard bb = (HexBitboard)other;
+		if (bb.N != N) {
+			return false;
+		}
+		for (int i=0; i<WORDS; i++) {
+			if (stones[0][i] != bb.stones[0][i] || stones[1][i] != bb.stones[1][i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	public int hashCode()
+	{
+		long h = 0;
+		for (int i=0; i<WORDS; i++) {
+			h = h * 31 + stones[0][i];
+			h = h * 31 + stones[1][i];
+		}
+		return (int)(h ^ (h >>> 32));
+	}
+}
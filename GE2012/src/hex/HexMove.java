@@ -44,6 +44,17 @@ public class HexMove extends GameMove {
 			return row == mv.row && col == mv.col;
 		}
 	}
+	public int toCode()
+	{ return posOK(row, col) ? row * HexState.N + col : -1; }
+	public void parseCode(int code)
+	{
+		if (!Util.inrange(code, 0, HexState.N * HexState.N - 1)) {
+			row = col = -1;		// off the board, so moveOK turns it down
+			return;
+		}
+		row = code / HexState.N;
+		col = code % HexState.N;
+	}
 	public void parseMove(String s)
 	{
 		StringTokenizer toks = new StringTokenizer(s, "-");
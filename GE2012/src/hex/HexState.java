@@ -1,6 +1,7 @@
 package hex;
 
 import game.*;
+import java.util.*;
 
 public class HexState extends GameState {
 	public static final Params gameParams = new Params("config/hex.txt");
@@ -8,18 +9,39 @@ public class HexState extends GameState {
 	public static final char homeSym = gameParams.character("HOMESYM");
 	public static final char awaySym = gameParams.character("AWAYSYM");
 	public static final char emptySym = gameParams.character("EMPTYSYM");
-	public static final int gameTime = gameParams.character("GAMETIME");
+	public static final int gameTime = gameParams.integer("GAMETIME");
 
 	public char [][] board;
-	public boolean [][][][][] connected;
-	private final int [] neighsDeltaR = {-1,-1, 0, 0,+1,+1};
-	private final int [] neighsDeltaC = { 0,+1,-1,+1,-1, 0};
+	public HexUnionFind groups;
+	public HexBitboard bits;
+	private int [] history;			// cells played, as row * N + col
+	private int [] marks;			// union-find log mark before each move
+	private int historySize;
+	static final int [] neighsDeltaR = {-1,-1, 0, 0,+1,+1};
+	static final int [] neighsDeltaC = { 0,+1,-1,+1,-1, 0};
+	/**
+	 * Zobrist keys per side (0 HOME, 1 AWAY) and cell (row * N + col).
+	 * The seed is fixed so that keys agree between processes and runs.
+	 */
+	public static final long [][] zobrist = new long [2][N * N];
+	static {
+		Random rand = new Random(0x2012L);
+		for (int i=0; i<2; i++) {
+			for (int j=0; j<N*N; j++) {
+				zobrist[i][j] = rand.nextLong();
+			}
+		}
+	}
+	private long hashKey;
 	
 	public HexState()
 	{
 		super();
 		board = new char [N][N];
-		connected = new boolean [2][N][N][N][N];
+		groups = new HexUnionFind(N);
+		bits = new HexBitboard(N);
+		history = new int [N * N];
+		marks = new int [N * N];
 		reset();
 	}
 	public Object clone()
@@ -29,100 +51,118 @@ public class HexState extends GameState {
 		for (int r=0; r<N; r++) {
 			for (int c=0; c<N; c++) {
 				res.board[r][c] = board[r][c];
-				for (int r2=0; r2<N; r2++) {
-					for (int c2=0; c2<N; c2++) {
-						res.connected[0][r][c][r2][c2] = connected[0][r][c][r2][c2];
-						res.connected[1][r][c][r2][c2] = connected[1][r][c][r2][c2];
-					}
-				}
 			}
 		}
+		res.groups.copy(groups);
+		res.bits.copy(bits);
+		System.arraycopy(history, 0, res.history, 0, historySize);
+		System.arraycopy(marks, 0, res.marks, 0, historySize);
+		res.historySize = historySize;
+		res.hashKey = hashKey;
 		return res;
 	}
 	public void reset()
 	{
 		clear();
-		for (int r=0; r<N; r++) {
-			for (int c=0; c<N; c++) {
-				board[r][c] = emptySym;
-				for (int r2=0; r2<N; r2++) {
-					for (int c2=0; c2<N; c2++) {
-						connected[0][r][c][r2][c2] = false;
-						connected[1][r][c][r2][c2] = false;
-					}
-				}
-			}
-		}
+		Util.clear(board, emptySym);
+		groups.reset();
+		bits.clear();
+		historySize = 0;
+		hashKey = 0;
 	}
 	public boolean moveOK(GameMove m)
 	{
 		HexMove mv = (HexMove)m;
 		return status == Status.GAME_ON && mv != null &&
 			Util.inrange(mv.row, 0, N-1) && Util.inrange(mv.col, 0, N-1) &&
-			board[mv.row][mv.col] == emptySym &&
+			bits.isEmpty(mv.row, mv.col) &&
 			!(numMoves == 0 && mv.row == N/2 && mv.col == N/2);
 	}
 	private GameState.Status gameOver()
 	{
-		for (int c1=0; c1<N; c1++) {
-			for (int c2=0; c2<N; c2++) {
-				if (connected[0][0][c1][N-1][c2]) {
-					return GameState.Status.HOME_WIN; 
-				}
-			}
-		}
-		for (int r1=0; r1<N; r1++) {
-			for (int r2=0; r2<N; r2++) {
-				if (connected[1][r1][0][r2][N-1]) {
-					return GameState.Status.AWAY_WIN; 
-				}
-			}
+		if (groups.homeWon()) {
+			return GameState.Status.HOME_WIN;
+		} else if (groups.awayWon()) {
+			return GameState.Status.AWAY_WIN;
 		}
 		return GameState.Status.GAME_ON;
 	}
-	private void update(int which, int r1, int c1, int r2, int c2)
+	/**
+	 * Labels each of one side's stones with the number of its chain.
+	 * Chains are found through stones only, never through the borders.
+	 * @param which 0 for HOME, 1 for AWAY
+	 * @return Label per cell (row * N + col); -1 for cells without such
+	 * a stone, or for a stone with no neighbor of its own color
+	 */
+	private int [] chainLabels(int which)
 	{
-		connected[which][r1][c1][r2][c2] = true; 
-		connected[which][r2][c2][r1][c1] = true;
-		for (int r=0; r<HexState.N; r++) {
-			for (int c=0; c<HexState.N; c++) {
-				if (connected[which][r][c][r1][c1] && !connected[which][r][c][r2][c2]) {
-					update(which, r, c, r2, c2);
-				}
-				if (connected[which][r][c][r2][c2] && !connected[which][r][c][r1][c1]) {
-					update(which, r, c, r1, c1);
+		char sym = (which == 0 ? homeSym : awaySym);
+		int [] label = new int [N * N];
+		int [] stack = new int [N * N];
+		Arrays.fill(label, -1);
+		for (int start=0; start<N*N; start++) {
+			if (label[start] != -1 || board[start / N][start % N] != sym)
+				continue;
+			int sp = 0, size = 0;
+			stack[sp++] = start;
+			label[start] = start;
+			while (sp > 0) {
+				int cur = stack[--sp];
+				size++;
+				for (int i=0; i<6; i++) {
+					int nr = cur / N + neighsDeltaR[i];
+					int nc = cur % N + neighsDeltaC[i];
+					if (HexMove.posOK(nr, nc) && board[nr][nc] == sym && label[nr * N + nc] == -1) {
+						label[nr * N + nc] = start;
+						stack[sp++] = nr * N + nc;
+					}
 				}
 			}
+			if (size == 1)
+				label[start] = -1;
 		}
+		return label;
+	}
+	/**
+	 * Are two cells connected by a chain of one side's stones? A lone
+	 * stone is not considered connected to itself.
+	 * @param which 0 for HOME, 1 for AWAY
+	 */
+	public boolean isConnected(int which, int r1, int c1, int r2, int c2)
+	{
+		int [] label = chainLabels(which);
+		return label[r1 * N + c1] != -1 && label[r1 * N + c1] == label[r2 * N + c2];
 	}
 	public void printConnectivity()
 	{
-		for (int r=0; r<HexState.N; r++) {
-			for (int c=0; c<HexState.N; c++) {
-				for (int r2=0; r2<HexState.N; r2++) {
-					for (int c2=0; c2<HexState.N; c2++) {
-						System.out.print(connected[0][r][c][r2][c2]?1:0);
-					}
-				}
-				System.out.println();
+		int [] label = chainLabels(0);
+		for (int a=0; a<N*N; a++) {
+			for (int b=0; b<N*N; b++) {
+				System.out.print(label[a] != -1 && label[a] == label[b] ? 1 : 0);
 			}
+			System.out.println();
 		}
 		System.out.println();
 	}
-	private void updateConnectivity(HexMove mv, GameState.Who who)
-	{
-		int which = (who == GameState.Who.HOME ? 0 : 1);
-		char sym = (who == GameState.Who.HOME ? HexState.homeSym : HexState.awaySym);
-		int R = mv.row;
-		int C = mv.col;
-		for (int i=0; i<6; i++) {
-			int nr = R + neighsDeltaR[i];
-			int nc = C + neighsDeltaC[i];
-			if (HexMove.posOK(nr, nc) && !connected[which][R][C][nr][nc] &&
-					board[nr][nc] == sym) {
-				update(which, R, C, nr, nc);
+	/**
+	 * Rebuilds the bitboard, hash key and connectivity from the board.
+	 */
+	private void rebuildFromBoard()
+	{
+		groups.reset();
+		bits.clear();
+		hashKey = 0;
+		for (int r=0; r<N; r++) {
+			for (int c=0; c<N; c++) {
+				if (board[r][c] != emptySym) {
+					int which = (board[r][c] == homeSym ? 0 : 1);
+					bits.set(which, r, c);
+					hashKey ^= zobrist[which][r * N + c];
+					groups.addStone(board, r, c, board[r][c] == homeSym);
+				}
 			}
 		}
+		groups.clearLog();
 	}
 	public boolean makeMove(GameMove m)
 	{
@@ -132,17 +172,37 @@ public class HexState extends GameState {
 		if (moveOK(m)) {
 			OK = true;
 			board[mv.row][mv.col] = sym;
-			updateConnectivity(mv, who);
+			bits.set(who == GameState.Who.HOME ? 0 : 1, mv.row, mv.col);
+			marks[historySize] = groups.mark();
+			history[historySize++] = mv.row * N + mv.col;
+			hashKey ^= zobrist[who == GameState.Who.HOME ? 0 : 1][mv.row * N + mv.col];
+			groups.addStone(board, mv.row, mv.col, who == GameState.Who.HOME);
 			status = gameOver();
 			super.newMove();
 		}
 		return OK;
 	}
+	public boolean unmakeMove()
+	{
+		if (historySize == 0) {
+			return false;
+		}
+		historySize--;
+		int r = history[historySize] / N;
+		int c = history[historySize] % N;
+		int which = (board[r][c] == homeSym ? 0 : 1);
+		bits.unset(which, r, c);
+		hashKey ^= zobrist[which][r * N + c];
+		board[r][c] = emptySym;
+		groups.rollback(marks[historySize]);
+		super.undoMove();
+		return true;
+	}
 	public void parseMsgString(String s)
 	{
 		reset();
 		Util.parseMsgString(s, board, emptySym);
-		parseConn(s, s.indexOf('(')+1);
+		rebuildFromBoard();
 		parseMsgSuffix(s.substring(s.indexOf('[')));
 	}
 	public boolean equals(Object other)
@@ -155,36 +215,59 @@ public class HexState extends GameState {
 			return false;
 		} else {
 			HexState hs = (HexState)other;
-	 		for (int r=0; r<N; r++) {
-				for (int c=0; c<N; c++) {
-					if (board[r][c] != hs.board[r][c]) {
-						return false;
-					}
+			return hashKey == hs.hashKey && bits.equals(hs.bits);
+		}
+	}
+	public long getHashKey()
+	{ return hashKey; }
+	/**
+	 * Turning the board through 180 degrees swaps the two edges of each
+	 * side, so the rotated position plays exactly the same.
+	 * @return The cell a cell (row * N + col) goes to
+	 */
+	public static int rotate(int cell)
+	{ return N * N - 1 - cell; }
+	/**
+	 * @return The hash key of this position turned through 180 degrees
+	 */
+	public long getRotatedHashKey()
+	{
+		long key = 0;
+		for (int r=0; r<N; r++) {
+			for (int c=0; c<N; c++) {
+				if (board[r][c] != emptySym) {
+					key ^= zobrist[board[r][c] == homeSym ? 0 : 1][rotate(r * N + c)];
 				}
 			}
-			return true;
 		}
+		return key;
 	}
+	/**
+	 * Key shared by this position and its rotation: the smaller of the two.
+	 * Moves stored under it are for whichever of the two has that key
+	 * (see isCanonical).
+	 */
+	public long getCanonicalKey()
+	{ return Math.min(hashKey, getRotatedHashKey()); }
+	/**
+	 * @return true if getCanonicalKey is this position's own key
+	 */
+	public boolean isCanonical()
+	{ return hashKey <= getRotatedHashKey(); }
+	public int hashCode()
+	{ return (int)(hashKey ^ (hashKey >>> 32)); }
+	/**
+	 * Reads a legacy connectivity matrix. Connectivity is derived from
+	 * the board, so this only checks that the matrix is well formed.
+	 */
 	public void parseConn(String s, int start)
 	{
 		int N = HexState.N;
 		int pos = start;
-		for (int i=0; i<2; i++) {
-			for (int a=0; a<N; a++) {
-				for (int b=0; b<N; b++) {
-					for (int c=0; c<N; c++) {
-						for (int d=0; d<N; d++) {
-							char ch = s.charAt(pos++);
-							if (ch == '1')
-								connected[i][a][b][c][d] = true;
-							else if (ch == '0')
-								connected[i][a][b][c][d] = false;
-							else
-								System.err.println("PROBLEM");
-						}
-					}
-				}
-			}
+		for (int i=0; i<2 * N * N * N * N; i++) {
+			char ch = s.charAt(pos++);
+			if (ch != '1' && ch != '0')
+				System.err.println("PROBLEM");
 		}
 	}
 	public String connString()
@@ -194,13 +277,10 @@ public class HexState extends GameState {
 		StringBuffer buf = new StringBuffer(sz);
 		buf.append('(');
 		for (int i=0; i<2; i++) {
-			for (int a=0; a<N; a++) {
-				for (int b=0; b<N; b++) {
-					for (int c=0; c<N; c++) {
-						for (int d=0; d<N; d++) {
-							buf.append(connected[i][a][b][c][d]?'1':'0');
-						}
-					}
+			int [] label = chainLabels(i);
+			for (int a=0; a<N*N; a++) {
+				for (int b=0; b<N*N; b++) {
+					buf.append(label[a] != -1 && label[a] == label[b] ? '1' : '0');
 				}
 			}
 		}
@@ -212,4 +292,10 @@ public class HexState extends GameState {
 	}
 	public String msgString()
 	{ return "" + Util.msgString(board) + connString() + this.msgSuffix(); }
+	/**
+	 * The board and suffix without the connectivity matrix, which the
+	 * receiver rebuilds from the board in parseMsgString.
+	 */
+	public String compactMsgString()
+	{ return "" + Util.msgString(board) + this.msgSuffix(); }
 }
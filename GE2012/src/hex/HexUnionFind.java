@@ -0,0 +1,159 @@
+package hex;
+
+import java.util.*;
+
+/**
+ * Disjoint-set forest tracking which stones of each side are connected.
+ * Cells are numbered row * N + col. Four virtual nodes stand for the
+ * borders: HOME owns the top and bottom rows, AWAY the left and right
+ * columns. A side has won once its two virtual nodes share a root.
+ * Every write to the forest is logged, so it can be rolled back to any
+ * earlier mark in time proportional to the writes made since.
+ */
+public class HexUnionFind {
+	public final int N;
+	public final int TOP, BOTTOM, LEFT, RIGHT;
+	private final int [] parent;
+	private final int [] size;
+	private int [] logPos = new int [256];
+	private int [] logVal = new int [256];
+	private int logSize;
+
+	public HexUnionFind(int n)
+	{
+		N = n;
+		TOP = N * N;
+		BOTTOM = TOP + 1;
+		LEFT = TOP + 2;
+		RIGHT = TOP + 3;
+		parent = new int [N * N + 4];
+		size = new int [N * N + 4];
+		reset();
+	}
+	public void reset()
+	{
+		for (int i=0; i<parent.length; i++) {
+			parent[i] = i;
+			size[i] = 1;
+		}
+		logSize = 0;
+	}
+	public void copy(HexUnionFind src)
+	{
+		System.arraycopy(src.parent, 0, parent, 0, parent.length);
+		System.arraycopy(src.size, 0, size, 0, size.length);
+		if (logPos.length < src.logSize) {
+			logPos = new int [src.logPos.length];
+			logVal = new int [src.logVal.length];
+		}
+		System.arraycopy(src.logPos, 0, logPos, 0, src.logSize);
+		System.arraycopy(src.logVal, 0, logVal, 0, src.logSize);
+		logSize = src.logSize;
+	}
+	/**
+	 * @return Position in the undo log to pass to rollback()
+	 */
+	public int mark()
+	{ return logSize; }
+	/**
+	 * Undoes every write made since the mark was taken.
+	 */
+	public void rollback(int mark)
+	{
+		while (logSize > mark) {
+			logSize--;
+			int pos = logPos[logSize];
+			if (pos < parent.length)
+				parent[pos] = logVal[logSize];
+			else
+				size[pos - parent.length] = logVal[logSize];
+		}
+	}
+	/**
+	 * Drops the undo log; earlier marks become invalid.
+	 */
+	public void clearLog()
+	{ logSize = 0; }
+	// size entries are logged at positions offset by parent.length
+	private void log(int pos, int old)
+	{
+		if (logSize == logPos.length) {
+			logPos = Arrays.copyOf(logPos, 2 * logSize);
+			logVal = Arrays.copyOf(logVal, 2 * logSize);
+		}
+		logPos[logSize] = pos;
+		logVal[logSize] = old;
+		logSize++;
+	}
+	public int cell(int r, int c)
+	{ return r * N + c; }
+	/**
+	 * Finds the root of a node's set, halving the path as it goes.
+	 * @param x Node index
+	 * @return Root of the set containing x
+	 */
+	public int find(int x)
+	{
+		while (parent[x] != x) {
+			int grand = parent[parent[x]];
+			if (grand != parent[x]) {
+				log(x, parent[x]);
+				parent[x] = grand;
+			}
+			x = grand;
+		}
+		return x;
+	}
+	public void union(int a, int b)
+	{
+		a = find(a);
+		b = find(b);
+		if (a == b)
+			return;
+		if (size[a] < size[b]) {
+			int t = a; a = b; b = t;
+		}
+		log(b, parent[b]);
+		log(parent.length + a, size[a]);
+		parent[b] = a;
+		size[a] += size[b];
+	}
+	public boolean connected(int a, int b)
+	{ return find(a) == find(b); }
+	/**
+	 * Number of nodes in the set containing x (virtual nodes included).
+	 */
+	public int setSize(int x)
+	{ return size[find(x)]; }
+	/**
+	 * Links a newly placed stone to its same-colored neighbors and to
+	 * the borders its side is trying to connect.
+	 * @param board Board, with the new stone already placed
+	 * @param r Row of the new stone
+	 * @param c Column of the new stone
+	 * @param home true if the stone belongs to HOME
+	 */
+	public void addStone(char [][] board, int r, int c, boolean home)
+	{
+		int x = cell(r, c);
+		char sym = board[r][c];
+		for (int i=0; i<6; i++) {
+			int nr = r + HexState.neighsDeltaR[i];
+			int nc = c + HexState.neighsDeltaC[i];
+			if (nr >= 0 && nr < N && nc >= 0 && nc < N && board[nr][nc] == sym) {
+				union(x, cell(nr, nc));
+			}
+		}
+		if (home) {
+			if (r == 0) union(x, TOP);
+			if (r == N-1) union(x, BOTTOM);
+		} else {
+			if (c == 0) union(x, LEFT);
+			if (c == N-1) union(x, RIGHT);
+		}
+	}
+	public boolean homeWon()
+	{ return connected(TOP, BOTTOM); }
+	public boolean awayWon()
+	{ return connected(LEFT, RIGHT); }
+}
@@ -0,0 +1,245 @@
+package hex;
+
+/**
+ * Empty cells that a side never needs to play, found from the six cells
+ * around each one (its ring). Off-board neighbours count as the edge
+ * they lie beyond: top and bottom are HOME's, left and right AWAY's; a
+ * neighbour beyond two edges at once could be either.
+ *
+ * A cell is dead if neither colour on it can ever matter: however the
+ * empty ring cells are filled, the HOME cells of the ring form a single
+ * run, and so do the AWAY ones, so a stone in the middle joins nothing
+ * that isn't joined already. An empty ring cell where a stone of one
+ * colour would make the cell dead is a killer; a cell with a killer of
+ * the opponent's colour is vulnerable, and moving there is never better
+ * than moving to the killer. Two touching empty cells that are each
+ * other's killers for one colour are captured by it: whichever the
+ * opponent takes, the other answer leaves that stone dead.
+ *
+ * The patterns are looked up in a table of all 4^6 rings, and every
+ * cell's ring is kept up to date as stones go down, so a query only
+ * reads the table.
+ */
+public class InferiorCells {
+	/** Ring cell contents, as in MCTSHexPlayer's owner arrays. OFF is beyond a corner. */
+	public static final byte EMPTY = 0, HOME = 1, AWAY = 2, OFF = 3;
+
+	// ring order: each neighbour touches the next, and the last the first
+	private static final int [] RING_DR = {-1,-1, 0,+1,+1, 0};
+	private static final int [] RING_DC = { 0,+1,+1, 0,-1,-1};
+	private static final int DEAD = 1 << 12;
+	private static final int [] PATTERNS = new int [1 << 12];	// DEAD | HOME killers << 6 | AWAY killers
+
+	public final int N, CELLS, WORDS;
+	private final int [][] ring;		// the cell at each ring position, or -1 off the board
+	private final int [][] back;		// the position a cell has in each neighbour's ring
+	private final byte [] owner;
+	private final int [] code;			// each cell's ring, 2 bits per position
+	private final int [] emptyCode;		// the ring of each cell on an empty board
+
+	static {
+		byte [] cells = new byte [6];
+		for (int code=0; code<PATTERNS.length; code++) {
+			decode(code, cells);
+			int flags = dead(cells) ? DEAD : 0;
+			for (int i=0; i<6; i++) {
+				if (cells[i] != EMPTY)
+					continue;
+				cells[i] = HOME;
+				if (dead(cells))
+					flags |= 1 << (6 + i);
+				cells[i] = AWAY;
+				if (dead(cells))
+					flags |= 1 << i;
+				cells[i] = EMPTY;
+			}
+			PATTERNS[code] = flags;
+		}
+	}
+	private static void decode(int code, byte [] cells)
+	{
+		for (int i=0; i<6; i++) {
+			cells[i] = (byte)((code >>> (2 * i)) & 3);
+		}
+	}
+	/**
+	 * @return true if every way of filling the ring leaves each colour in at most one run
+	 */
+	private static boolean dead(byte [] cells)
+	{
+		int open = 0;
+		for (int i=0; i<6; i++) {
+			if (cells[i] == EMPTY || cells[i] == OFF)
+				open |= 1 << i;
+		}
+		byte [] filled = new byte [6];
+		for (int fill=0; fill<64; fill++) {
+			if ((fill & ~open) != 0)
+				continue;
+			for (int i=0; i<6; i++) {
+				filled[i] = ((open >>> i & 1) == 0 ? cells[i] : (fill >>> i & 1) == 0 ? HOME : AWAY);
+			}
+			if (runs(filled, HOME) > 1 || runs(filled, AWAY) > 1)
+				return false;
+		}
+		return true;
+	}
+	private static int runs(byte [] cells, byte side)
+	{
+		int count = 0;
+		for (int i=0; i<6; i++) {
+			if (cells[i] == side && cells[(i + 5) % 6] != side)
+				count++;
+		}
+		return count;
+	}
+
+	public InferiorCells(int n)
+	{
+		N = n;
+		CELLS = N * N;
+		WORDS = (CELLS + 63) / 64;
+		ring = new int [CELLS][6];
+		back = new int [CELLS][6];
+		owner = new byte [CELLS];
+		code = new int [CELLS];
+		emptyCode = new int [CELLS];
+		for (int cell=0; cell<CELLS; cell++) {
+			int r = cell / N, c = cell % N;
+			for (int i=0; i<6; i++) {
+				int r2 = r + RING_DR[i], c2 = c + RING_DC[i];
+				boolean rowOff = (r2 < 0 || r2 >= N), colOff = (c2 < 0 || c2 >= N);
+				ring[cell][i] = (rowOff || colOff ? -1 : r2 * N + c2);
+				byte edge = (rowOff && colOff ? OFF : rowOff ? HOME : colOff ? AWAY : EMPTY);
+				emptyCode[cell] |= edge << (2 * i);
+				back[cell][i] = (i + 3) % 6;		// the opposite direction
+			}
+		}
+		clear();
+	}
+	public void clear()
+	{
+		for (int cell=0; cell<CELLS; cell++) {
+			owner[cell] = EMPTY;
+		}
+		System.arraycopy(emptyCode, 0, code, 0, CELLS);
+	}
+	/**
+	 * Puts down a stone, updating the rings around it.
+	 * @param cell row * N + col
+	 * @param side HOME or AWAY
+	 */
+	public void set(int cell, byte side)
+	{
+		owner[cell] = side;
+		for (int i=0; i<6; i++) {
+			int n = ring[cell][i];
+			if (n >= 0) {
+				int shift = 2 * back[cell][i];
+				code[n] = (code[n] & ~(3 << shift)) | side << shift;
+			}
+		}
+	}
+	/**
+	 * Sets up a whole position.
+	 * @param cells Contents by cell, EMPTY, HOME or AWAY
+	 */
+	public void setAll(byte [] cells)
+	{
+		clear();
+		for (int cell=0; cell<CELLS; cell++) {
+			if (cells[cell] != EMPTY)
+				set(cell, cells[cell]);
+		}
+	}
+	/**
+	 * Sets up a whole position.
+	 */
+	public void setAll(HexState state)
+	{
+		clear();
+		for (int cell=0; cell<CELLS; cell++) {
+			int r = cell / N, c = cell % N;
+			if (state.bits.has(0, r, c))
+				set(cell, HOME);
+			else if (state.bits.has(1, r, c))
+				set(cell, AWAY);
+		}
+	}
+	public byte get(int cell)
+	{ return owner[cell]; }
+	public boolean isDead(int cell)
+	{ return owner[cell] == EMPTY && (PATTERNS[code[cell]] & DEAD) != 0; }
+	/**
+	 * @param side The side whose stone would kill the cell
+	 * @return Neighbouring cells where a stone of side would leave cell dead
+	 */
+	private int killers(int cell, byte side)
+	{
+		int flags = PATTERNS[code[cell]];
+		return (side == HOME ? flags >>> 6 : flags) & 63;
+	}
+	private static byte other(byte side)
+	{ return side == HOME ? AWAY : HOME; }
+	/**
+	 * @return true if a move by side to cell is no better than one to a killer
+	 */
+	public boolean isVulnerable(int cell, byte side)
+	{ return owner[cell] == EMPTY && killers(cell, other(side)) != 0; }
+	/**
+	 * @return true if cell is one of a pair of empty cells captured by side
+	 */
+	public boolean isCaptured(int cell, byte side)
+	{
+		if (owner[cell] != EMPTY)
+			return false;
+		int kill = killers(cell, side);
+		for (int i=0; i<6; i++) {
+			if ((kill >>> i & 1) != 0 && (killers(ring[cell][i], side) >>> back[cell][i] & 1) != 0)
+				return true;
+		}
+		return false;
+	}
+	/**
+	 * Cells side has no need to play: dead ones, captured ones (by either
+	 * side), and ones vulnerable to a killer that is itself worth playing.
+	 * @return Bitset of cells, bit cell of word cell / 64
+	 */
+	public long [] prunable(byte side)
+	{
+		long [] set = new long [WORDS];
+		for (int cell=0; cell<CELLS; cell++) {
+			if (owner[cell] == EMPTY && (isDead(cell) || isCaptured(cell, HOME) || isCaptured(cell, AWAY)))
+				set[cell >>> 6] |= 1L << cell;
+		}
+		byte killer = other(side);
+		for (int cell=0; cell<CELLS; cell++) {
+			if (has(set, cell) || owner[cell] != EMPTY)
+				continue;
+			int kill = killers(cell, killer);
+			for (int i=0; i<6 && kill != 0; i++, kill >>>= 1) {
+				int k = ring[cell][i];
+				// a pair of cells that kill each other mustn't both go
+				if ((kill & 1) != 0 && !has(set, k) && !isVulnerable(k, side)) {
+					set[cell >>> 6] |= 1L << cell;
+					break;
+				}
+			}
+		}
+		return set;
+	}
+	/**
+	 * @return Bitset of the dead cells
+	 */
+	public long [] dead()
+	{
+		long [] set = new long [WORDS];
+		for (int cell=0; cell<CELLS; cell++) {
+			if (isDead(cell))
+				set[cell >>> 6] |= 1L << cell;
+		}
+		return set;
+	}
+	public static boolean has(long [] set, int cell)
+	{ return (set[cell >>> 6] & (1L << cell)) != 0; }
+}
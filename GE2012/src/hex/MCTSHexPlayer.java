@@ -0,0 +1,603 @@
+package hex;
+
+import game.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Monte Carlo tree search player. Every core runs its own descents
+ * through one shared tree, choosing children by UCT blended with RAVE
+ * (all-moves-as-first) values. The tree takes no locks: statistics are
+ * updated atomically, a node's children are published with a single
+ * compare-and-set, and every node passed on the way down takes a
+ * virtual loss (its visit is counted before its result is known) so
+ * that threads spread over different lines.
+ *
+ * Playouts fill the rest of the board at random, then score it with a
+ * single bitboard flood fill. A full Hex board always has exactly one
+ * winner, so only HOME's connection needs testing. Workers keep all of
+ * their scratch space, so a playout allocates nothing.
+ *
+ * Unless given a fixed time per move, the search runs to the
+ * TimeManager's soft deadline, and on towards the hard one while the
+ * two most visited moves are still close.
+ *
+ * The tree is kept between moves: when the new position is the old
+ * root plus the moves played since, the matching subtree becomes the
+ * new root. Pondering searches the position after our move, so when
+ * the opponent plays an expected reply most of that work carries over.
+ * Statistics for every position in the tree also go to a transposition
+ * table, keyed by the position's hash, and new nodes start from what it
+ * holds: a position reached by another move order, or left behind with
+ * a subtree that was thrown away, isn't learned from scratch again.
+ */
+public class MCTSHexPlayer extends GamePlayer {
+	private static final int CELLS = HexState.N * HexState.N;
+	private static final int CENTRE = (HexState.N / 2) * HexState.N + HexState.N / 2;	// barred to the first move (see HexState.moveOK)
+	private static final byte EMPTY = 0, HOME = 1, AWAY = 2;
+	private static final double EXPLORE = 0.2;
+	private static final double RAVE_EQUIV = 1000;	// visits at which RAVE and UCT weigh the same
+	private static final int EXPAND_VISITS = 4;
+	private static final int MAX_NODES = 4000000;
+	private static final double CLEAR_LEAD = 1.5;	// visits of the best move over the next best to stop at the soft deadline
+	private static final int MAX_STRETCH = 3;		// never think more than this many times the planned time
+	private static final int PRIOR_VISITS = 20;		// most visits a new node takes over from the table
+	private static final int STAT_BITS = 24;		// visits and wins each get this much of a table entry
+
+	protected double secondsPerMove;
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
+
+	// search shared by the workers
+	private Node root;
+	private byte [] rootOwner = new byte [CELLS];
+	private boolean rootHomeToMove;
+	private boolean rootFirstMove;
+	private long rootKey;
+	private final TranspositionTable table;
+	private volatile long deadline;
+	private final AtomicInteger nodeCount = new AtomicInteger();
+	private ExecutorService workerPool;		// numThreads threads, made once in init
+
+	// throughput of the last search, and of the tournament so far
+	private long movePlayouts, totalPlayouts, ponderPlayouts;
+	private double moveSecs, totalSecs;
+	private int moves, reusedVisits;
+
+	public MCTSHexPlayer(String n)
+	{
+		this(n, 0);
+	}
+	/**
+	 * @param secondsPerMove Fixed time per move, or 0 to budget from the game clock
+	 */
+	public MCTSHexPlayer(String n, double secondsPerMove)
+	{
+		super(n, new HexState(), false);
+		this.secondsPerMove = secondsPerMove;
+		timeManager = new TimeManager(HexState.gameParams);
+		pondering = true;
+		table = new TranspositionTable(tournamentParams, 32);
+	}
+	/**
+	 * Starts the search threads, which every move and ponder reuse.
+	 */
+	public void init()
+	{
+		if (workerPool != null)
+			return;
+		workerPool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			private int count;
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, nickname + " search " + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	public void startGame(String opponent)
+	{
+		root = null;
+	}
+
+	/**
+	 * One position in the tree. Statistics are from the point of view of
+	 * the side that played cell to get here.
+	 */
+	static final class Node {
+		static final AtomicIntegerFieldUpdater<Node> VISITS =
+				AtomicIntegerFieldUpdater.newUpdater(Node.class, "visits");
+		static final AtomicIntegerFieldUpdater<Node> WINS =
+				AtomicIntegerFieldUpdater.newUpdater(Node.class, "wins");
+		static final AtomicIntegerFieldUpdater<Node> RAVE_VISITS =
+				AtomicIntegerFieldUpdater.newUpdater(Node.class, "raveVisits");
+		static final AtomicIntegerFieldUpdater<Node> RAVE_WINS =
+				AtomicIntegerFieldUpdater.newUpdater(Node.class, "raveWins");
+		static final AtomicReferenceFieldUpdater<Node, Node []> CHILDREN =
+				AtomicReferenceFieldUpdater.newUpdater(Node.class, Node [].class, "children");
+
+		final int cell;
+		volatile int visits, wins, raveVisits, raveWins;
+		volatile Node [] children;
+
+		Node(int cell)
+		{ this.cell = cell; }
+	}
+
+	/**
+	 * Per-thread scratch space.
+	 */
+	private class Worker implements Runnable {
+		final Node [] path = new Node [CELLS + 1];
+		final long [] keys = new long [CELLS + 1];		// hash of the position at each node of path
+		final byte [] owner = new byte [CELLS];
+		final int [] free = new int [CELLS];
+		final HexBitboard bits = new HexBitboard(HexState.N);
+		long seed;
+		long playouts;
+
+		Worker(long seed)
+		{ this.seed = seed | 1; }
+		// xorshift; a shared java.util.Random would serialize the threads
+		int nextInt(int bound)
+		{
+			seed ^= seed << 13;
+			seed ^= seed >>> 7;
+			seed ^= seed << 17;
+			return (int)((seed >>> 33) % bound);
+		}
+		public void run()
+		{
+			do {
+				search(this);
+				playouts++;
+			} while (System.nanoTime() < deadline);
+		}
+	}
+
+	public GameMove getMove(GameState state, String lastMove)
+	{
+		HexState board = (HexState)state;
+		long start = System.nanoTime();
+		long soft, hard;
+		if (secondsPerMove > 0) {
+			soft = hard = start + (long)(secondsPerMove * 1e9);
+		} else {
+			// games rarely fill more than half the board
+			timeManager.startMove((CELLS - board.getNumMoves()) / 4);
+			soft = timeManager.softDeadline();
+			hard = Math.min(timeManager.hardDeadline(), soft + (MAX_STRETCH - 1) * Math.max(soft - start, 0));
+		}
+		setRoot(board);
+		table.newSearch();
+		reusedVisits = root.visits;
+		movePlayouts = search(soft, hard, false);
+		moveSecs = (System.nanoTime() - start) / 1e9;
+		return bestMove();
+	}
+	public void ponder(GameState state)
+	{
+		setRoot((HexState)state);
+		ponderPlayouts += search(0, Long.MAX_VALUE, true);
+	}
+	public GameMove ponderGuess()
+	{ return root.children == null ? null : bestMove(); }
+	public GameMove fallbackMove(GameState state)
+	{
+		HexState board = (HexState)state;
+		HexMove mv = new HexMove();
+		for (int cell=0; cell<CELLS; cell++) {
+			mv.row = cell / HexState.N;
+			mv.col = cell % HexState.N;
+			if (board.moveOK(mv))
+				return mv;
+		}
+		return null;
+	}
+	public GameMove bestMoveSoFar()
+	{
+		deadline = System.nanoTime();
+		return root == null ? null : bestMove();
+	}
+	/**
+	 * Runs the workers on the current root.
+	 * @param ponder true to run until ponderStopped(), rather than to the deadlines
+	 * @return Number of playouts made
+	 */
+	private long search(long soft, long hard, boolean ponder)
+	{
+		long start = System.nanoTime();
+		deadline = hard;
+		Worker [] workers = new Worker [numThreads];
+		Future<?> [] running = new Future<?> [numThreads];
+		for (int i=0; i<numThreads; i++) {
+			workers[i] = new Worker(start * 31 + i);
+			running[i] = workerPool.submit(workers[i]);
+		}
+		if (ponder)
+			waitForOpponent();
+		else
+			waitForDecision(soft, hard);
+		long playouts = 0;
+		for (int i=0; i<numThreads; i++) {
+			try {
+				running[i].get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e) {
+				System.err.println("Problem in " + nickname + " search " + e.getCause());
+			}
+			playouts += workers[i].playouts;
+		}
+		return playouts;
+	}
+	private void waitForOpponent()
+	{
+		while (!ponderStopped()) {
+			try {
+				Thread.sleep(1);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		deadline = System.nanoTime();
+	}
+	/**
+	 * Stops the workers at the soft deadline if the best move is clear,
+	 * otherwise as soon as it is, or at the hard deadline.
+	 */
+	private void waitForDecision(long soft, long hard)
+	{
+		long now;
+		while ((now = System.nanoTime()) < hard && now < deadline) {
+			if (now >= soft && clearBest())
+				break;
+			long wait = Math.min((now < soft ? soft : hard) - now, 20000000L);
+			try {
+				Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		deadline = System.nanoTime();
+	}
+	private boolean clearBest()
+	{
+		Node [] kids = root.children;
+		if (kids == null)
+			return true;
+		int best = 0, second = 0;
+		for (int i=0; i<kids.length; i++) {
+			int v = kids[i].visits;
+			if (v > best) {
+				second = best;
+				best = v;
+			} else if (v > second) {
+				second = v;
+			}
+		}
+		return best >= CLEAR_LEAD * second;
+	}
+	private void setRoot(HexState board)
+	{
+		Node reuse = findSubtree(board);
+		for (int cell=0; cell<CELLS; cell++) {
+			rootOwner[cell] = owner(board, cell);
+		}
+		rootHomeToMove = board.getWho() == GameState.Who.HOME;
+		rootFirstMove = board.getNumMoves() == 0;
+		rootKey = board.getHashKey();
+		if (reuse != null) {
+			root = reuse;
+			nodeCount.set(countNodes(root));
+		} else {
+			root = new Node(-1);
+			nodeCount.set(1);
+		}
+	}
+	private static byte owner(HexState board, int cell)
+	{
+		int r = cell / HexState.N, c = cell % HexState.N;
+		return board.bits.has(0, r, c) ? HOME : board.bits.has(1, r, c) ? AWAY : EMPTY;
+	}
+	/**
+	 * Looks for a board in the current tree: the root with at most a
+	 * move for each side added (ours, then the opponent's).
+	 * @return The node for board, or null if it isn't in the tree
+	 */
+	private Node findSubtree(HexState board)
+	{
+		if (root == null)
+			return null;
+		byte toMove = rootHomeToMove ? HOME : AWAY;
+		int mine = -1, theirs = -1;
+		for (int cell=0; cell<CELLS; cell++) {
+			byte now = owner(board, cell);
+			if (now == rootOwner[cell])
+				continue;
+			if (rootOwner[cell] != EMPTY)
+				return null;
+			if (now == toMove && mine < 0)
+				mine = cell;
+			else if (now != toMove && theirs < 0)
+				theirs = cell;
+			else
+				return null;
+		}
+		if (theirs >= 0 && mine < 0)
+			return null;		// the same side can't move twice
+		Node node = root;
+		if (mine >= 0)
+			node = child(node, mine);
+		if (node != null && theirs >= 0)
+			node = child(node, theirs);
+		return node;
+	}
+	private static Node child(Node node, int cell)
+	{
+		Node [] kids = node.children;
+		if (kids == null)
+			return null;
+		for (int i=0; i<kids.length; i++) {
+			if (kids[i].cell == cell)
+				return kids[i];
+		}
+		return null;
+	}
+	private static int countNodes(Node node)
+	{
+		int count = 1;
+		Node [] kids = node.children;
+		if (kids != null) {
+			for (int i=0; i<kids.length; i++) {
+				count += countNodes(kids[i]);
+			}
+		}
+		return count;
+	}
+	/**
+	 * @return The most visited move at the root
+	 */
+	protected HexMove bestMove()
+	{
+		Node [] kids = root.children;
+		Node best = null;
+		if (kids != null) {
+			for (int i=0; i<kids.length; i++) {
+				if (best == null || kids[i].visits > best.visits)
+					best = kids[i];
+			}
+		}
+		int cell = (best != null ? best.cell : firstLegal());
+		return new HexMove(cell / HexState.N, cell % HexState.N);
+	}
+	/**
+	 * @return The moves tried at the root, most visited first
+	 */
+	int [] rankedMoves()
+	{
+		Node [] kids = root.children;
+		if (kids == null)
+			return new int [0];
+		kids = kids.clone();
+		Arrays.sort(kids, new Comparator<Node>() {
+			public int compare(Node a, Node b)
+			{ return b.visits - a.visits; }
+		});
+		int [] cells = new int [kids.length];
+		for (int i=0; i<kids.length; i++) {
+			cells[i] = kids[i].cell;
+		}
+		return cells;
+	}
+	/**
+	 * @return Visits of a move at the root, 0 if it wasn't tried
+	 */
+	int visits(int cell)
+	{
+		Node kid = child(root, cell);
+		return kid == null ? 0 : kid.visits;
+	}
+	private int firstLegal()
+	{
+		for (int cell=0; cell<CELLS; cell++) {
+			if (rootOwner[cell] == EMPTY && !(rootFirstMove && cell == CENTRE))
+				return cell;
+		}
+		return -1;
+	}
+	/**
+	 * One descent, playout and update.
+	 */
+	private void search(Worker w)
+	{
+		byte [] owner = w.owner;
+		System.arraycopy(rootOwner, 0, owner, 0, CELLS);
+		boolean homeToMove = rootHomeToMove;
+		Node node = root;
+		int depth = 0;
+		w.keys[depth] = rootKey;
+		w.path[depth++] = node;
+		Node.VISITS.incrementAndGet(node);
+
+		while (true) {
+			Node [] kids = node.children;
+			if (kids == null) {
+				if (node.visits < EXPAND_VISITS || nodeCount.get() >= MAX_NODES)
+					break;
+				kids = expand(node, w, depth, homeToMove);
+			}
+			if (kids.length == 0)
+				break;
+			node = select(node, kids);
+			Node.VISITS.incrementAndGet(node);	// virtual loss until the result is in
+			owner[node.cell] = homeToMove ? HOME : AWAY;
+			w.keys[depth] = w.keys[depth - 1] ^ HexState.zobrist[homeToMove ? 0 : 1][node.cell];
+			homeToMove = !homeToMove;
+			w.path[depth++] = node;
+		}
+
+		boolean homeWon = playout(w, homeToMove);
+		update(w, depth, homeWon);
+	}
+	/**
+	 * Gives node its children, each starting from the table's statistics
+	 * for its position, scaled down to at most PRIOR_VISITS.
+	 * @param depth Length of the path down to and including node
+	 */
+	private Node [] expand(Node node, Worker w, int depth, boolean homeToMove)
+	{
+		boolean atRoot = (depth == 1);
+		long [] zobrist = HexState.zobrist[homeToMove ? 0 : 1];
+		int count = 0;
+		for (int cell=0; cell<CELLS; cell++) {
+			if (w.owner[cell] == EMPTY && !(atRoot && rootFirstMove && cell == CENTRE))
+				w.free[count++] = cell;
+		}
+		// random order, so untried children aren't always taken row by row
+		for (int i=count-1; i>0; i--) {
+			int j = w.nextInt(i + 1);
+			int t = w.free[i]; w.free[i] = w.free[j]; w.free[j] = t;
+		}
+		Node [] kids = new Node [count];
+		for (int i=0; i<count; i++) {
+			Node kid = new Node(w.free[i]);
+			long stats = table.probe(w.keys[depth - 1] ^ zobrist[kid.cell]);
+			if (stats != TranspositionTable.MISS) {
+				int visits = (int)(stats >>> STAT_BITS), wins = (int)(stats & ((1 << STAT_BITS) - 1));
+				if (visits > PRIOR_VISITS) {
+					wins = (int)((long)wins * PRIOR_VISITS / visits);
+					visits = PRIOR_VISITS;
+				}
+				kid.visits = visits;
+				kid.wins = wins;
+			}
+			kids[i] = kid;
+		}
+		if (Node.CHILDREN.compareAndSet(node, null, kids)) {
+			nodeCount.addAndGet(count);
+			return kids;
+		}
+		return node.children;		// another thread got there first
+	}
+	private Node select(Node parent, Node [] kids)
+	{
+		double logParent = Math.log(parent.visits + 1);
+		Node best = null;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for (int i=0; i<kids.length; i++) {
+			Node kid = kids[i];
+			int n = kid.visits, rn = kid.raveVisits;
+			double q = (n > 0 ? (double)kid.wins / n : 0.5);
+			double r = (rn > 0 ? (double)kid.raveWins / rn : 0.5);
+			double beta = rn / (rn + n + rn * n / RAVE_EQUIV + 1e-9);
+			double value = (1 - beta) * q + beta * r + EXPLORE * Math.sqrt(logParent / (n + 1));
+			if (value > bestValue) {
+				bestValue = value;
+				best = kid;
+			}
+		}
+		return best;
+	}
+	/**
+	 * Fills every empty cell at random, alternating sides.
+	 * @return true if HOME connects top to bottom
+	 */
+	private boolean playout(Worker w, boolean homeToMove)
+	{
+		byte [] owner = w.owner;
+		int count = 0;
+		for (int cell=0; cell<CELLS; cell++) {
+			if (owner[cell] == EMPTY)
+				w.free[count++] = cell;
+		}
+		byte side = homeToMove ? HOME : AWAY;
+		for (int i=count-1; i>=0; i--) {
+			int j = w.nextInt(i + 1);
+			int cell = w.free[j];
+			w.free[j] = w.free[i];
+			owner[cell] = side;
+			side = (side == HOME ? AWAY : HOME);
+		}
+		HexBitboard bits = w.bits;
+		bits.clear();
+		for (int cell=0; cell<CELLS; cell++) {
+			if (owner[cell] == HOME)
+				bits.set(0, cell / HexState.N, cell % HexState.N);
+		}
+		return bits.connects(0);
+	}
+	/**
+	 * Credits the result along the path. Visits were counted on the way
+	 * down. Each node's children also get the RAVE update for the cells
+	 * their side ended up owning.
+	 */
+	private void update(Worker w, int depth, boolean homeWon)
+	{
+		byte winner = homeWon ? HOME : AWAY;
+		byte mover = rootHomeToMove ? HOME : AWAY;	// side that chose among the children of path[i]
+		for (int i=0; i<depth; i++) {
+			Node node = w.path[i];
+			if (i > 0) {
+				int wins = (mover != winner	// node was entered by the other side
+						? Node.WINS.incrementAndGet(node) : node.wins);
+				store(w.keys[i], node.visits, wins);
+			}
+			Node [] kids = node.children;
+			if (kids != null) {
+				boolean won = (mover == winner);
+				for (int k=0; k<kids.length; k++) {
+					if (w.owner[kids[k].cell] == mover) {
+						Node.RAVE_VISITS.incrementAndGet(kids[k]);
+						if (won)
+							Node.RAVE_WINS.incrementAndGet(kids[k]);
+					}
+				}
+			}
+			mover = (mover == HOME ? AWAY : HOME);
+		}
+	}
+	/**
+	 * Keeps a node's statistics for when its position comes up again.
+	 */
+	private void store(long key, int visits, int wins)
+	{
+		int max = (1 << STAT_BITS) - 1;
+		if (visits > max) {
+			wins = (int)((long)wins * max / visits);
+			visits = max;
+		}
+		// a node's visits are its depth: a bigger sample is kept over a smaller one
+		table.store(key, (long)visits << STAT_BITS | Math.min(wins, visits), 32 - Integer.numberOfLeadingZeros(visits));
+	}
+	public void timeOfLastMove(double secs)
+	{
+		moves++;
+		totalPlayouts += movePlayouts;
+		totalSecs += moveSecs;
+		System.out.printf("%s: %d playouts in %.2f s, %.0f/s (%.0f/s per thread), %d reused, server time %.3f s, %.1f s left%n",
+				nickname, movePlayouts, moveSecs, movePlayouts / moveSecs,
+				movePlayouts / moveSecs / numThreads, reusedVisits, secs, timeManager.getRemaining());
+	}
+	public void done()
+	{
+		if (totalSecs > 0) {
+			System.out.printf("%s: %d moves, %d playouts, %.0f/s (%.0f/s per thread on %d threads), %d more pondering%n",
+					nickname, moves, totalPlayouts, totalPlayouts / totalSecs,
+					totalPlayouts / totalSecs / numThreads, numThreads, ponderPlayouts);
+		}
+		System.out.printf("%s: transpositions %s%n", nickname, table);
+	}
+	public static void main(String [] args)
+	{
+		GamePlayer p = new MCTSHexPlayer("MCTS+");
+		p.compete(args, 1);
+	}
+}
@@ -0,0 +1,74 @@
+package hex;
+
+import game.*;
+import java.util.*;
+
+/**
+ * Builds an opening book (see OpeningBook) offline, with long Monte
+ * Carlo searches. Every position up to the given number of moves is
+ * searched once, a position and its rotation counting as one; the book
+ * keeps the most visited move and its visits. Below each position it
+ * follows either every legal move or just the most visited ones, which
+ * stand for the replies an opponent is likely to make.
+ *
+ * Usage: java hex.OpeningBookBuilder [plies [secs [width [file]]]]
+ *   plies  Moves already on the board in the deepest positions (default 1)
+ *   secs   Search time per position (default 10)
+ *   width  Moves followed below each position, 0 for all (default 0)
+ *   file   Book to write (default config/hexbook.bin)
+ */
+public class OpeningBookBuilder {
+	public static void main(String [] args) throws Exception
+	{
+		int plies = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		double secs = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+		int width = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		String fname = args.length > 3 ? args[3] : "config/hexbook.bin";
+
+		MCTSHexPlayer searcher = new MCTSHexPlayer("book", secs);
+		searcher.init();
+		HashMap<Long, int []> book = new HashMap<Long, int []>();
+		List<HexState> level = new ArrayList<HexState>();
+		level.add(new HexState());
+
+		for (int ply=0; ply<=plies && !level.isEmpty(); ply++) {
+			List<HexState> next = new ArrayList<HexState>();
+			HashSet<Long> seen = new HashSet<Long>();
+			System.out.printf("ply %d: %d positions%n", ply, level.size());
+			for (HexState state : level) {
+				HexMove mv = (HexMove)searcher.getMove(state, "--");
+				int cell = mv.toCode();
+				// store the move for the orientation the key belongs to
+				book.put(state.getCanonicalKey(), new int [] {
+						state.isCanonical() ? cell : HexState.rotate(cell), searcher.visits(cell) });
+				System.out.printf("  %s -> %s (%d visits)%n", describe(state), mv, searcher.visits(cell));
+				if (ply == plies)
+					continue;
+
+				int [] moves = searcher.rankedMoves();
+				int count = (width > 0 ? Math.min(width, moves.length) : moves.length);
+				for (int i=0; i<count; i++) {
+					HexState child = (HexState)state.clone();
+					if (!child.makeMove(new HexMove(moves[i] / HexState.N, moves[i] % HexState.N)))
+						continue;
+					if (child.getStatus() == GameState.Status.GAME_ON && seen.add(child.getCanonicalKey()))
+						next.add(child);
+				}
+			}
+			level = next;
+		}
+		OpeningBook.write(fname, book);
+		System.out.printf("%d positions written to %s%n", book.size(), fname);
+	}
+	private static String describe(HexState state)
+	{
+		StringBuilder buf = new StringBuilder();
+		for (int r=0; r<HexState.N; r++) {
+			for (int c=0; c<HexState.N; c++) {
+				if (state.board[r][c] != HexState.emptySym)
+					buf.append(state.board[r][c]).append(r).append('-').append(c).append(' ');
+			}
+		}
+		return buf.length() == 0 ? "empty" : buf.toString().trim();
+	}
+}
@@ -25,6 +25,8 @@ public class RandomHexPlayer extends GamePlayer {
 		int which = Util.randInt(0, list.size()-1);
 		return list.get(which);
 	}
+	protected GamePlayer newEngine()
+	{ return new RandomHexPlayer(nickname); }
 	public static void main(String [] args)
 	{
 		GamePlayer p = new RandomHexPlayer("Random+");
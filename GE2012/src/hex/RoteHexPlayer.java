@@ -35,6 +35,8 @@ public class RoteHexPlayer extends GamePlayer {
 		return null;
 	}
 
+	protected GamePlayer newEngine()
+	{ return new RoteHexPlayer(nickname); }
 	public static void main(String [] args)
 	{
 		GamePlayer p = new RoteHexPlayer("Rote+");
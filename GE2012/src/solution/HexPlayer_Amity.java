@@ -3,16 +3,26 @@ package solution;
 import game.GameMove;
 import game.GamePlayer;
 import game.GameState;
+import game.OpeningBook;
+import game.TimeManager;
+import game.TranspositionTable;
 import game.Util;
 import hex.HexMove;
+import hex.InferiorCells;
 import hex.HexState;
 
 import java.awt.Point;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * Our own custom solver designed to compete in a Hex tornament
@@ -24,10 +34,13 @@ import java.util.List;
 public class HexPlayer_Amity extends GamePlayer
 {
 	private CurrentGame currentGame;
+	private PhaseStats tournamentStats = new PhaseStats(); // every finished game's phase stats added together
+	private boolean extraEngine = false; // made by newEngine to play alongside us
 	
 	public HexPlayer_Amity(String name)
 	{
 		super(name, new HexState(), false);
+		timeManager = new TimeManager(HexState.gameParams); // the server's limits, for the watchdog and our own budget
 	}
 
 	/**
@@ -38,7 +51,39 @@ public class HexPlayer_Amity extends GamePlayer
 	 */
 	public void init()
 	{
-		System.gc();	// let's clean up other people's junk
+		if (!extraEngine)
+			System.gc();	// let's clean up other people's junk (not for every engine, though - it stops every game)
+
+		if (DijkstraBoard.distanceTable == null)
+			DijkstraBoard.distanceTable = new TranspositionTable(tournamentParams, 16);
+
+		VirtualConnections.timeLimit = tournamentParams.real("VCTIME", VirtualConnections.timeLimit);
+
+		if (CurrentGame.openingBook == null) // engines for other sessions share the book
+		{
+			try
+			{
+				CurrentGame.openingBook = OpeningBook.load(tournamentParams.string("BOOK", "config/hexbook.bin"));
+			} catch (IOException e)
+			{
+				System.err.println("Couldn't load the opening book: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Makes another engine to play one game while others are going. It
+	 * has its own game and clock but shares the tables and the tournament
+	 * stats with this one.
+	 * 
+	 * @return The new engine
+	 */
+	protected GamePlayer newEngine()
+	{
+		HexPlayer_Amity engine = new HexPlayer_Amity(nickname);
+		engine.tournamentStats = tournamentStats;
+		engine.extraEngine = true;
+		return engine;
 	}
 
 	/**
@@ -50,8 +95,11 @@ public class HexPlayer_Amity extends GamePlayer
 	 */
 	public void startGame(String opponent)
 	{
-		currentGame = new CurrentGame();
+		currentGame = new CurrentGame(this);
 		currentGame.init();
+
+		if (DijkstraBoard.distanceTable != null)
+			DijkstraBoard.distanceTable.newSearch(); // older games' distances go first
 	}
 
 	/**
@@ -71,6 +119,16 @@ public class HexPlayer_Amity extends GamePlayer
 	 */
 	public void endGame(int result)
 	{
+		if (currentGame == null)
+			return;
+
+		PhaseStats stats = currentGame.getStats();
+		stats.endGame();
+		System.out.print(stats.summary(nickname + " game phases"));
+		synchronized (tournamentStats)
+		{
+			tournamentStats.add(stats);
+		}
 	}
 
 	/**
@@ -79,6 +137,13 @@ public class HexPlayer_Amity extends GamePlayer
 	 */
 	public void done()
 	{
+		System.out.print(tournamentStats.summary(nickname + " tournament phases"));
+
+		if (DijkstraBoard.distanceTable != null)
+			System.out.println(nickname + " distances: " + DijkstraBoard.distanceTable);
+
+		if (CurrentGame.openingBook != null)
+			System.out.println(nickname + " book: " + CurrentGame.openingBook);
 	}
 
 	/**
@@ -92,10 +157,39 @@ public class HexPlayer_Amity extends GamePlayer
 	 */
 	public GameMove getMove(GameState state, String lastMove)
 	{
+		timeManager.startMove((BoardTopology.CELLS - state.getNumMoves()) / 4);
 		GameMove result = currentGame.getMove(state, lastMove);
 		
 		return result;
 	}
+
+	/**
+	 * Tells the solver the watchdog has given up on this move
+	 * @return True once getMove should hurry up and return; False otherwise
+	 */
+	boolean stopped()
+	{
+		return moveStopped();
+	}
+
+	/**
+	 * Tells the solver when this move's time is up, as the {@link TimeManager} plans it
+	 * @return System.nanoTime() to be done searching by
+	 */
+	long deadline()
+	{
+		return timeManager.softDeadline();
+	}
+
+	/**
+	 * Called if getMove takes too long (or blows up) so we still send something
+	 * @param state The current state of the game
+	 * @return A random, valid move
+	 */
+	public GameMove fallbackMove(GameState state)
+	{
+		return currentGame.chooseRandomPoint(state);
+	}
 	
 	public static void main(String[] args)
 	{
@@ -118,12 +212,52 @@ class CurrentGame
 
 	private BoardController boardController; 
 	private SolverController solverController;
+	private PhaseStats stats = new PhaseStats(); // what each phase of this game's moves cost
 
 	//variable for determining which sides are solver is trying to connect
 	public static final int CONNECT_NUMBERS = 0; // trying to connect from 1-11 (white)
 	public static final int CONNECT_LETTERS = 1; // trying to connect from 'a'-'k' (black)
 	private int connectRoute = -1; // a variable that stores the sides we are tring to connect (0 for white, 1 for black)
 
+	static OpeningBook openingBook; // moves worked out ahead of time for early positions (null if there is no book)
+
+	private HexPlayer_Amity player; // who we're playing for, to know when to give up (null if nobody)
+
+	/**
+	 * Creates a game with nobody to tell us to stop
+	 */
+	public CurrentGame()
+	{
+		this(null);
+	}
+
+	/**
+	 * Creates a game
+	 * @param player The {@link HexPlayer_Amity} we're playing for (or null)
+	 */
+	public CurrentGame(HexPlayer_Amity player)
+	{
+		this.player = player;
+	}
+
+	/**
+	 * Tells if the watchdog has already sent a move for this one, so whatever we come up with is thrown away
+	 * @return True if we should give up on the move; False otherwise
+	 */
+	public boolean stopped()
+	{
+		return player != null && player.stopped();
+	}
+
+	/**
+	 * Tells how long this move may take, on top of the fixed budgets each phase has
+	 * @return System.nanoTime() to be done searching by (Long.MAX_VALUE if nobody is keeping time)
+	 */
+	public long deadline()
+	{
+		return (player == null ? Long.MAX_VALUE : player.deadline());
+	}
+
 	/**
 	 * Initializes our controllers and such (can't do this until we've established 'this'!)
 	 */
@@ -139,18 +273,40 @@ class CurrentGame
 	 * @param lastMove What the last move was
 	 * @return An acceptable move in {@link GameMove} format
 	 */
-	public GameMove getMove(GameState state, String lastMove)
+	public synchronized GameMove getMove(GameState state, String lastMove)
 	{
 		HexMove result = null;
 
 		HexPoint point = parseTheirString(lastMove);
-		if (point == null)
+		Phase source = null;
+
+		stats.start(Phase.BOOK);
+		HexMove book = bookMove((HexState) state);
+		stats.stop();
+		if (book != null)
+		{
+			// play it, and set ourselves up as if we'd come up with it
+			syncBoards((HexState) state);
+
+			if (connectRoute < 0)
+				connectRoute = (state.getWho() == GameState.Who.HOME ? CONNECT_NUMBERS : CONNECT_LETTERS);
+
+			if (solverController.getFirst() == null)
+				solverController.setFirst(parseTheirString(book.toString()));
+
+			solverController.skipClassicBlock(); // its pattern wouldn't start from the book's moves
+
+			result = book;
+			source = Phase.BOOK;
+		}
+		else if (point == null)
 		{
 			// we're going first - do a nice default move
 			HexPoint me = new HexPoint(5, 'f');
 			solverController.setFirst(me);
 
 			result = toHexMove(me);
+			source = Phase.OPENING;
 
 			connectRoute = CONNECT_NUMBERS;
 		}
@@ -158,8 +314,8 @@ class CurrentGame
 		{
 			// they just went - time to counter
 
-			// apply their move to our boards
-			boardController.applyMove(point.getX(), point.getY(), Player.YOU);
+			// apply their move to our boards (and fix our own last one if the watchdog sent something else)
+			syncBoards((HexState) state);
 
 			// calculate our next move
 
@@ -174,17 +330,26 @@ class CurrentGame
 				
 			} catch (Exception e)
 			{
+				// shouldn't happen, but a random move beats none at all
+				System.err.println("Problem in the solver " + e);
+				stats.failed(); // blamed on whichever phase was running
 			}
 
 			if (move == null)
 			{
 				result = chooseRandomPoint(state);
+				source = Phase.RANDOM;
 			}
 			else
+			{
 				result = toHexMove(move);
+				source = solverController.getSource();
+			}
 
 		}
 
+		stats.supplied(source);
+
 		// apply our move to the board
 		point = parseTheirString(result.toString());
 
@@ -194,7 +359,58 @@ class CurrentGame
 	}
 
 	/**
-	 * Selects a random {@link HexMove}
+	 * Looks the position up in the opening book
+	 * @param state The current {@link HexState}
+	 * @return The book's move (or null if it has none)
+	 */
+	private HexMove bookMove(HexState state)
+	{
+		if (openingBook == null)
+			return null;
+
+		int code = openingBook.lookup(state.getCanonicalKey());
+		if (code < 0)
+			return null;
+
+		// the book's move is for the rotated board if that has the key
+		if (!state.isCanonical())
+			code = HexState.rotate(code);
+
+		HexMove move = new HexMove(code / HexState.N, code % HexState.N);
+		if (!state.moveOK(move))
+			return null;
+
+		return move;
+	}
+
+	/**
+	 * Brings our boards in line with the real one
+	 * We're the ones to move, so we know which pieces are ours
+	 * @param state The current {@link HexState}
+	 */
+	private void syncBoards(HexState state)
+	{
+		char mine = (state.getWho() == GameState.Who.HOME ? HexState.homeSym : HexState.awaySym);
+
+		for (int r = 0; r < HexState.N; r++)
+		{
+			for (int c = 0; c < HexState.N; c++)
+			{
+				Player player = Player.EMPTY;
+				if (state.board[r][c] == mine)
+					player = Player.ME;
+				else if (state.board[r][c] != HexState.emptySym)
+					player = Player.YOU;
+
+				HexPoint point = BoardTopology.point(r * HexState.N + c);
+				if (boardController.getIndivBoard().getNode(point).getOccupied() != player)
+					boardController.applyMove(point.getX(), point.getY(), player);
+			}
+		}
+	}
+
+	/**
+	 * Selects a random {@link HexMove}, leaving out dead and captured cells if there's anything else
 	 * @param state The current {@link GameState}
 	 * @return A random, valid {@link HexMove}
 	 */
@@ -202,7 +418,14 @@ class CurrentGame
 	{
 		HexState board = (HexState) state;
 		ArrayList<HexMove> list = new ArrayList<HexMove>();
+		ArrayList<HexMove> useful = new ArrayList<HexMove>();
 		HexMove mv = new HexMove();
+
+		// worked out from the state itself, since the watchdog can call this while a move is being made
+		InferiorCells inferior = new InferiorCells(HexState.N);
+		inferior.setAll(board);
+		long[] pruned = inferior.prunable(state.getWho() == GameState.Who.HOME ? InferiorCells.HOME : InferiorCells.AWAY);
+
 		for (int r = 0; r < HexState.N; r++)
 		{
 			for (int c = 0; c < HexState.N; c++)
@@ -212,9 +435,16 @@ class CurrentGame
 				if (board.moveOK(mv))
 				{
 					list.add((HexMove) mv.clone());
+
+					if (!InferiorCells.has(pruned, r * HexState.N + c))
+						useful.add((HexMove) mv.clone());
 				}
 			}
 		}
+
+		if (!useful.isEmpty())
+			list = useful; // no point picking a cell nobody needs
+
 		int which = Util.randInt(0, list.size() - 1);
 		return list.get(which);
 	}
@@ -246,7 +476,7 @@ class CurrentGame
 		int x = Integer.parseInt(k[0]) + 1;
 		char y = (char) (Integer.parseInt(k[1]) + CHARACTER_SUBTRACT + 1);
 
-		return new HexPoint(x, y);
+		return HexPoint.at(x, y);
 	}
 
 	/**
@@ -267,6 +497,15 @@ class CurrentGame
 		return solverController;
 	}
 
+	/**
+	 * Gets the stats on what each phase of our moves cost in this game
+	 * @return The game's {@link PhaseStats}
+	 */
+	public PhaseStats getStats()
+	{
+		return stats;
+	}
+
 	/**
 	 * Gets the connection route we need to take in order to win
 	 * @return The current connection direction
@@ -320,6 +559,16 @@ class BoardController
 		}
 	}
 
+	/**
+	 * Adds a board which needs to follow the moves from now on
+	 * Boards are given moves in the order they were added
+	 * @param board The {@link BoardInterface} to add
+	 */
+	public void addBoard(BoardInterface board)
+	{
+		boards.add(board);
+	}
+
 	/**
 	 * Gets a list of all the {@link BoardInterface}s in the game
 	 * @return boards
@@ -348,11 +597,12 @@ class BoardController
  * @author Mike DiBuduo
  *
  */
-class DijkstraBoard
+class DijkstraBoard implements BoardInterface
 {
 	private IndivBoard indivBoard;
 
 	private List<DijkstraNode> nodes = new ArrayList<DijkstraNode>();
+	private DijkstraNode[] cells = new DijkstraNode[BoardTopology.CELLS]; // the board nodes, by cell index
 
 	// the four walls
 	private DijkstraNode wallA;
@@ -361,14 +611,61 @@ class DijkstraBoard
 	private DijkstraNode wallEle;
 
 	// Weight's
-	private static final double ME_WEIGHT = 0;
-	private static final double EMPTY_WEIGHT = 1;
-	private static final double YOU_BRIDGE_WEIGHT = 6; // don't attempt to go through an enemy's two-bridge unless things look pretty horrific (/2 because 2 spots)
-	private static final double YOU_WEIGHT = 200; // won't overflow but will (almost?) never be the lowest node
+	private static final int ME_WEIGHT = 0;
+	private static final int EMPTY_WEIGHT = 1;
+	private static final int YOU_BRIDGE_WEIGHT = 6; // don't attempt to go through an enemy's two-bridge unless things look pretty horrific (/2 because 2 spots)
+	private static final int YOU_WEIGHT = 200; // won't overflow but will (almost?) never be the lowest node
+	private static final int UNKNOWN_WEIGHT = 500;
+
+	// Bucket queue for Dijkstra's. Every edge weighs at most UNKNOWN_WEIGHT, so everything waiting in the queue
+	// is within that much of the smallest distance and the buckets can be reused in a circle.
+	private static final int BUCKETS = 512; // power of 2 above UNKNOWN_WEIGHT
+	private int[] bucketHead = new int[BUCKETS]; // first entry in each bucket (or -1)
+	private DijkstraNode[] entryNode; // entries: the node waiting
+	private int[] entryNext; // entries: the next entry in the same bucket (or -1)
+	private int entries;
+
+	private int round = 0; // stamp of the current search; nodes from older searches count as reset
+
+	// The corners the enemy can claim from one space away
+	private static final int CORNER_TEN_B = BoardTopology.cell(10, 'b');
+	private static final int CORNER_ELEVEN_A = BoardTopology.cell(11, 'a');
+	private static final int CORNER_TEN_A = BoardTopology.cell(10, 'a');
+	private static final int CORNER_TWO_J = BoardTopology.cell(2, 'j');
+	private static final int CORNER_ONE_K = BoardTopology.cell(1, 'k');
+	private static final int CORNER_ONE_J = BoardTopology.cell(1, 'j');
+
+	// Whole-board distance fields we've already worked out, by the node they are measured to/from
+	private HashMap<DijkstraNode, int[]> fieldsTo = new HashMap<DijkstraNode, int[]>();
+	private HashMap<DijkstraNode, int[]> fieldsFrom = new HashMap<DijkstraNode, int[]>();
+
+	// Point to point distances, shared by every game of the tournament (null if we aren't keeping them)
+	// They are keyed by a hash of what every node looks like to Dijkstra's, the side we connect and the two points.
+	static TranspositionTable distanceTable;
+	private static final long[][] NODE_KEYS = new long[BoardTopology.CELLS][Player.values().length];
+	private static final long[] FROM_KEYS = new long[BoardTopology.CELLS];
+	private static final long[] TO_KEYS = new long[BoardTopology.CELLS];
+	private static final long LETTERS_KEY;
+	private long key; // hash of the nodes as they are now
+
+	static
+	{
+		Random rand = new Random(0x4a6d17L); // same keys every run so stored results stay comparable
+		for (int cell = 0; cell < BoardTopology.CELLS; cell++)
+		{
+			for (int p = 0; p < NODE_KEYS[cell].length; p++)
+				NODE_KEYS[cell][p] = rand.nextLong();
+
+			FROM_KEYS[cell] = rand.nextLong();
+			TO_KEYS[cell] = rand.nextLong();
+		}
+		LETTERS_KEY = rand.nextLong();
+	}
 
 	/**
 	 * Creates a new {@link DijkstraBoard}.
-	 * NOTE: We need to generate a new one each time the {@link IndivBoard} changes
+	 * NOTE: Once it's made it has to be given every move (see {@link BoardController#addBoard(BoardInterface)})
+	 *    *after* the {@link IndivBoard} it is based on
 	 * @param indivBoard The {@link IndivBoard} to base our {@link DijkstraNode}s on
 	 * @param curr The {@link CurrentGame}
 	 */
@@ -378,10 +675,6 @@ class DijkstraBoard
 		this.indivBoard = indivBoard;
 
 		// Initialize our map
-		HexPoint test = new HexPoint(1, 'a');
-
-		DijkstraNode initial = new DijkstraNode(test.getX(), test.getY(), indivBoard.getNode(test).getOccupied());
-		nodes.add(initial);
 		createMap();
 
 		// Create the walls
@@ -391,6 +684,8 @@ class DijkstraBoard
 			wallK = new DijkstraNode(-1, '!', Player.ME);
 			wallOne = new DijkstraNode(-1, '!', Player.YOU);
 			wallEle = new DijkstraNode(-1, '!', Player.YOU);
+
+			key ^= LETTERS_KEY; // the walls are the other way around
 		}
 		else
 		{
@@ -424,6 +719,110 @@ class DijkstraBoard
 			if (n.getY() == 'k')
 				makeNeighbors(wallK, n);
 		}
+
+		// A node is queued at most once for the start and once per edge leading to it
+		int capacity = 1;
+		for (DijkstraNode n : nodes)
+			capacity += n.getNeighbors().size();
+
+		entryNode = new DijkstraNode[capacity];
+		entryNext = new int[capacity];
+	}
+
+	@Override
+	public NodeInterface getNode(int x, char y)
+	{
+		return getNode(HexPoint.at(x, y));
+	}
+
+	/**
+	 * Updates the nodes around a move. Whether a space is part of an enemy two-bridge only
+	 *    depends on its neighbors, so nothing further away can change.
+	 * @param x The row we apply on
+	 * @param y The column we apply on
+	 * @param player Which {@link Player} made the move (already on the {@link IndivBoard})
+	 */
+	@Override
+	public synchronized void applyMove(int x, char y, Player player)
+	{
+		int cell = BoardTopology.cell(x, y);
+		boolean changed = updateNode(cell);
+
+		for (int touch : BoardTopology.NEIGHBORS[cell])
+			changed |= updateNode(touch);
+
+		// Our old distances don't hold anymore
+		if (changed)
+		{
+			fieldsTo.clear();
+			fieldsFrom.clear();
+		}
+	}
+
+	/**
+	 * Brings a node up to date with the {@link IndivBoard}
+	 * @param cell The cell index of the node
+	 * @return True if its {@link Player} changed; False otherwise
+	 */
+	private boolean updateNode(int cell)
+	{
+		Player player = findPlayer(cell);
+		if (cells[cell].getPlayer() == player)
+			return false;
+
+		key ^= NODE_KEYS[cell][cells[cell].getPlayer().ordinal()] ^ NODE_KEYS[cell][player.ordinal()];
+		cells[cell].setPlayer(player);
+		return true;
+	}
+
+	/**
+	 * Figures out what a space looks like to Dijkstra's
+	 * Spaces in-between the enemy's two-bridges, and in an enemy's corner, are marked as basically not crossable
+	 * @param cell The cell index
+	 * @return The {@link Player} to give the node
+	 */
+	private Player findPlayer(int cell)
+	{
+		// Mark an enemy's corner as their territory
+		if ((cell == CORNER_ELEVEN_A || cell == CORNER_TEN_A) && occupied(CORNER_TEN_B) == Player.YOU)
+			return Player.YOU_BRIDGE;
+
+		if ((cell == CORNER_ONE_K || cell == CORNER_ONE_J) && occupied(CORNER_TWO_J) == Player.YOU)
+			return Player.YOU_BRIDGE;
+
+		Player player = occupied(cell);
+		if (player != Player.EMPTY)
+			return player;
+
+		// Recognize the enemy's two-bridges that we're inside of
+		for (int from : BoardTopology.NEIGHBORS[cell])
+		{
+			if (occupied(from) != Player.YOU)
+				continue;
+
+			for (int i = 0; i < BoardTopology.BRIDGES[from].length; i++)
+			{
+				int[] conns = BoardTopology.CARRIERS[from][i];
+				if (occupied(BoardTopology.BRIDGES[from][i]) == Player.YOU && (conns[0] == cell || conns[1] == cell))
+				{
+					// check to see that the spaces between them pose a hazard
+					if (occupied(conns[0]) == Player.EMPTY && occupied(conns[1]) == Player.EMPTY)
+						return Player.YOU_BRIDGE;
+				}
+			}
+		}
+
+		return player;
+	}
+
+	/**
+	 * Gets who is on a space of the {@link IndivBoard}
+	 * @param cell The cell index
+	 * @return The {@link Player}
+	 */
+	private Player occupied(int cell)
+	{
+		return indivBoard.getNode(BoardTopology.point(cell)).getOccupied();
 	}
 
 	/**
@@ -433,13 +832,11 @@ class DijkstraBoard
 	 */
 	private DijkstraNode getNode(HexPoint pt)
 	{
-		for (DijkstraNode node : nodes)
-		{
-			if (node.getX() == pt.getX() && node.getY() == pt.getY())
-				return node;
-		}
+		int cell = pt.cell();
+		if (cell < 0)
+			return null;
 
-		return null;
+		return cells[cell];
 	}
 
 	/**
@@ -453,7 +850,17 @@ class DijkstraBoard
 		DijkstraNode dA = getNode(a);
 		DijkstraNode dB = getNode(b);
 
-		return findDistance(dA, dB);
+		if (distanceTable == null)
+			return findDistance(dA, dB);
+
+		long pairKey = key ^ FROM_KEYS[a.cell()] ^ TO_KEYS[b.cell()];
+		long stored = distanceTable.probe(pairKey);
+		if (stored != TranspositionTable.MISS)
+			return (int) stored;
+
+		double distance = findDistance(dA, dB);
+		distanceTable.store(pairKey, dB.getWeight() & 0xffffffffL, 0); // all searches are as deep as each other
+		return distance;
 	}
 
 	/**
@@ -477,63 +884,157 @@ class DijkstraBoard
 	 */
 	public synchronized double findDistance(DijkstraNode dA, DijkstraNode dB)
 	{
-		resetNodes(); // puts them in a clean state for a new test
+		search(dA, dB, false);
+
+		return dB.getWeight();
+	}
+
+	/**
+	 * Finds the difficulty of getting from every point on the board to a node
+	 * Same as calling {@link #findDistance(HexPoint, DijkstraNode)} for each point, but done in one pass
+	 * @param target The node to get to (usually a wall)
+	 * @return The distances, by cell index (don't modify)
+	 */
+	public synchronized int[] distancesTo(DijkstraNode target)
+	{
+		int[] field = fieldsTo.get(target);
+		if (field == null)
+		{
+			search(target, null, true);
+			fieldsTo.put(target, field = collectField());
+		}
+
+		return field;
+	}
+
+	/**
+	 * Finds the difficulty of getting from a point to every point on the board
+	 * Same as calling {@link #findDistance(HexPoint, HexPoint)} for each point, but done in one pass
+	 * @param source The {@link HexPoint} to start from
+	 * @return The distances, by cell index (don't modify)
+	 */
+	public synchronized int[] distancesFrom(HexPoint source)
+	{
+		DijkstraNode start = getNode(source);
+
+		int[] field = fieldsFrom.get(start);
+		if (field == null)
+		{
+			search(start, null, false);
+			fieldsFrom.put(start, field = collectField());
+		}
+
+		return field;
+	}
+
+	/**
+	 * Copies the weights of the last search out of the board nodes
+	 * @return The weights, by cell index
+	 */
+	private int[] collectField()
+	{
+		int[] field = new int[BoardTopology.CELLS];
+		for (int cell = 0; cell < BoardTopology.CELLS; cell++)
+		{
+			cells[cell].reset(round); // in case the search never got to it
+			field[cell] = cells[cell].getWeight();
+		}
+
+		return field;
+	}
+
+	/**
+	 * Runs Dijkstra's algorithm, leaving the results in the nodes
+	 * Going backwards we measure the paths *into* dA, so each step costs what the node we leave costs
+	 * @param dA The node to start from
+	 * @param dB The node we're looking for (or null to cover the whole board)
+	 * @param reverse True to measure paths to dA; False to measure paths from it
+	 */
+	private void search(DijkstraNode dA, DijkstraNode dB, boolean reverse)
+	{
+		round++; // puts them in a clean state for a new test
+		dA.reset(round);
+		if (dB != null)
+			dB.reset(round);
+
+		for (int i = 0; i < BUCKETS; i++)
+			bucketHead[i] = -1;
+		entries = 0;
 
 		dA.setNode(null, 0);
+		push(dA, 0);
+		int waiting = 1;
+		int current = 0;
 
 		// Is end still in the graph?
-		while (!dB.isCompleted())
+		while ((dB == null || !dB.isCompleted()) && waiting > 0)
 		{
 			// Choose the node with the least distance
+			while (bucketHead[current & (BUCKETS - 1)] < 0)
+				current++;
 
-			double smallestWeight = Double.MAX_VALUE;
-			DijkstraNode smallestNode = null;
+			int entry = bucketHead[current & (BUCKETS - 1)];
+			bucketHead[current & (BUCKETS - 1)] = entryNext[entry];
+			waiting--;
 
-			for (DijkstraNode n : nodes)
-			{
-				if (!n.isCompleted() && n.getWeight() <= smallestWeight)
-				{
-					smallestWeight = n.getWeight();
-					smallestNode = n;
-				}
-			}
+			DijkstraNode smallestNode = entryNode[entry];
+			if (smallestNode.isCompleted() || smallestNode.getWeight() != current)
+				continue; // we found a shorter way to it since this was queued
 
 			// Remove it from the graph
 			smallestNode.setCompleted(true);
+			int leaving = edgeWeight(smallestNode.getPlayer());
 
 			// Calculate distances between it and neighbors that are still in the graph
 			// Update distances, choosing the lowest
 			for (DijkstraNode n : smallestNode.getNeighbors())
 			{
+				n.reset(round);
 				if (!n.isCompleted())
 				{
-					double edgeWeight = 500;
-
-					if (n.getPlayer() == Player.ME)
-						edgeWeight = ME_WEIGHT;
-					else if (n.getPlayer() == Player.EMPTY)
-						edgeWeight = EMPTY_WEIGHT;
-					else if (n.getPlayer() == Player.YOU)
-						edgeWeight = YOU_WEIGHT;
-					else if (n.getPlayer() == Player.YOU_BRIDGE)
-						edgeWeight = YOU_BRIDGE_WEIGHT;
-
-					n.setNode(smallestNode, smallestNode.getWeight() + edgeWeight);
+					int weight = current + (reverse ? leaving : edgeWeight(n.getPlayer()));
+					if (n.setNode(smallestNode, weight))
+					{
+						push(n, weight);
+						waiting++;
+					}
 				}
 			}
-
 		}
+	}
 
-		return dB.getWeight();
+	/**
+	 * Finds the cost of stepping on to a node
+	 * @param player Who is on the node
+	 * @return The weight of the step
+	 */
+	private static int edgeWeight(Player player)
+	{
+		if (player == Player.ME)
+			return ME_WEIGHT;
+		else if (player == Player.EMPTY)
+			return EMPTY_WEIGHT;
+		else if (player == Player.YOU)
+			return YOU_WEIGHT;
+		else if (player == Player.YOU_BRIDGE)
+			return YOU_BRIDGE_WEIGHT;
+
+		return UNKNOWN_WEIGHT;
 	}
 
 	/**
-	 * Resets the node's difficulties so we can run a new algorithm round
+	 * Queues a node at a certain distance
+	 * @param node The {@link DijkstraNode}
+	 * @param weight Its distance
 	 */
-	private void resetNodes()
+	private void push(DijkstraNode node, int weight)
 	{
-		for (DijkstraNode n : nodes)
-			n.resetNode();
+		int bucket = weight & (BUCKETS - 1);
+
+		entryNode[entries] = node;
+		entryNext[entries] = bucketHead[bucket];
+		bucketHead[bucket] = entries;
+		entries++;
 	}
 
 	/**
@@ -558,62 +1059,19 @@ class DijkstraBoard
 		{
 			DijkstraNode newNode = new DijkstraNode(newPoint.getX(), newPoint.getY(), newPoint.getOccupied());
 			nodes.add(newNode);
+			cells[newPoint.getCell()] = newNode;
+			key ^= NODE_KEYS[newPoint.getCell()][newNode.getPlayer().ordinal()];
 		}
 
-		// Recognize the enemy's two-bridges and mark the spaces in-between them as basically not crossable
-		for (DijkstraNode node : nodes)
-		{
-			if (node.getPlayer() == Player.YOU)
-			{
-				List<HexPoint> bridges = ((IndivNode) indivBoard.getNode(node.getX(), node.getY())).getTwoChains();
-
-				for (HexPoint k : bridges)
-				{
-					if (indivBoard.getNode(k).getOccupied() == Player.YOU)
-					{
-						// check to see that the spaces between them pose a hazard
-						List<HexPoint> conns = k.connections(new HexPoint(node.getX(), node.getY()));
-
-						int empty = 0;
-
-						for (HexPoint p : conns)
-						{
-							if (indivBoard.getNode(p).getOccupied() == Player.EMPTY)
-								empty++;
-						}
-
-						if (empty >= 2) // if they're all empty
-						{
-							getNode(conns.get(0)).setPlayer(Player.YOU_BRIDGE);
-							getNode(conns.get(1)).setPlayer(Player.YOU_BRIDGE);
-						}
-					}
-				}
-			}
-		}
-
-		// Mark an enemy's corner as their territory
-		if (indivBoard.getNode(new HexPoint(10, 'b')).getOccupied() == Player.YOU)
-		{
-			getNode(new HexPoint(11, 'a')).setPlayer(Player.YOU_BRIDGE);
-			getNode(new HexPoint(10, 'a')).setPlayer(Player.YOU_BRIDGE);
-		}
-
-		if (indivBoard.getNode(new HexPoint(2, 'j')).getOccupied() == Player.YOU)
-		{
-			getNode(new HexPoint(1, 'k')).setPlayer(Player.YOU_BRIDGE);
-			getNode(new HexPoint(1, 'j')).setPlayer(Player.YOU_BRIDGE);
-		}
+		// Now that they all exist, figure out which ones are really enemy territory
+		for (int cell = 0; cell < BoardTopology.CELLS; cell++)
+			updateNode(cell);
 
 		// Adds all of a node's neighbors to itself
-		for (DijkstraNode node : nodes)
+		for (int cell = 0; cell < BoardTopology.CELLS; cell++)
 		{
-			HexPoint point = new HexPoint(node.getX(), node.getY());
-
-			for (HexPoint touch : point.touching())
-			{
-				node.addNeighbor(getNode(touch));
-			}
+			for (int touch : BoardTopology.NEIGHBORS[cell])
+				cells[cell].addNeighbor(cells[touch]);
 		}
 	}
 
@@ -666,7 +1124,7 @@ class DijkstraBoard
  * @author Daniel Centore
  *
  */
-class DijkstraNode
+class DijkstraNode implements NodeInterface
 {
 	private List<DijkstraNode> touching = new ArrayList<DijkstraNode>(); // All the nodes touching this one
 	
@@ -677,8 +1135,9 @@ class DijkstraNode
 	
 	// Info for Dijkstra's
 	private DijkstraNode from = null;
-	private double weight = Double.MAX_VALUE;
+	private int weight = Integer.MAX_VALUE;
 	private boolean completed = false;
+	private int round = 0; // the search the info above belongs to
 	
 	/**
 	 * Create a node for Dijkstra's algorithm
@@ -701,7 +1160,7 @@ class DijkstraNode
 	 * @param weight The new weight to add
 	 * @return True if we applied it (it is lower than the current); False otherwise
 	 */
-	protected boolean setNode(DijkstraNode from, double weight)
+	protected boolean setNode(DijkstraNode from, int weight)
 	{
 		if (weight < this.weight)
 		{
@@ -716,11 +1175,17 @@ class DijkstraNode
 	
 	/**
 	 * Resets the node so we can do another round of difficulty finding
+	 * Does nothing if it has already been reset for this round
+	 * @param round The search we're on
 	 */
-	protected void resetNode()
+	protected void reset(int round)
 	{
+		if (this.round == round)
+			return;
+
+		this.round = round;
 		from = null;
-		weight = Double.MAX_VALUE;
+		weight = Integer.MAX_VALUE;
 		completed = false;
 	}
 	
@@ -744,27 +1209,19 @@ class DijkstraNode
 
 	/**
 	 * Gets the X value of the node
-	 * @return The X value
-	 * @throws RuntimeException If you try to get the value of a wall
+	 * @return The X value (-1 for a wall)
 	 */
 	protected int getX()
 	{
-		if (x < 0)
-			throw new RuntimeException("DONT GET THE VALUE OF A WALL!!");
-		
 		return x;
 	}
 
 	/**
 	 * Gets the Y value of the node
-	 * @return The Y value
-	 * @throws RuntimeException If you try to get the value of a wall
+	 * @return The Y value ('!' for a wall)
 	 */
 	protected char getY()
 	{
-		if (x < 0)
-			throw new RuntimeException("DONT GET THE VALUE OF A WALL!!");
-		
 		return y;
 	}
 
@@ -805,7 +1262,7 @@ class DijkstraNode
 	 * Gets the weight that this node was assiged
 	 * @return The weight that the path to this node is
 	 */
-	protected double getWeight()
+	protected int getWeight()
 	{
 		return weight;
 	}
@@ -819,7 +1276,22 @@ class DijkstraNode
 		return player;
 	}
 
-	/**
+	@Override
+	public Player getOccupied()
+	{
+		return player;
+	}
+
+	@Override
+	public List<HexPoint> getPoints()
+	{
+		if (x < 0)
+			return Collections.emptyList(); // walls don't have a point
+
+		return Collections.singletonList(HexPoint.at(x, y));
+	}
+
+	/**
 	 * Sets the {@link Player} currently occupying this space
 	 * @param player The {@link Player} to set it to
 	 */
@@ -837,24 +1309,33 @@ class DijkstraNode
  */
 class IndivBoard implements BoardInterface
 {
-	public HashMap<HexPoint, IndivNode> map = new HashMap<HexPoint, IndivNode>();	// map of the points on our grid
+	private IndivNode[] nodes = new IndivNode[BoardTopology.CELLS];	// the points on our grid, by cell index
+	private List<IndivNode> points = new ArrayList<IndivNode>(BoardTopology.CELLS);	// the same points, in BoardTopology.ORDER
+
+	// Handed out for any spot off the board, so lookups next to the edges don't need checking
+	private static final IndivNode OFF_BOARD = new IndivNode(0, '!', Player.WALL);
 	
 	/**
-	 * Creates a new HexPoint for all points on a regular 11x11 board
+	 * Creates a new node for all points on a regular 11x11 board
 	 */
 	public IndivBoard()
 	{
-		for (int i = 1; i <= 11; i++)
+		for (int cell = 0; cell < BoardTopology.CELLS; cell++)
 		{
-			for (char c = 'a'; c <= 'k'; c++)
-				map.put(new HexPoint(i, c), new IndivNode(i, c));
+			HexPoint p = BoardTopology.point(cell);
+			nodes[cell] = new IndivNode(p.getX(), p.getY());
 		}
+
+		for (int cell : BoardTopology.ORDER)
+			points.add(nodes[cell]);
+
+		points = Collections.unmodifiableList(points);
 	}
 	
 	/**
 	 * Gets the {@link IndivNode} at a certain position
 	 * @param point A {@link HexPoint} representing the position
-	 * @return The {@link IndivNode} at the position
+	 * @return The {@link IndivNode} at the position (a {@link Player#WALL} if it's off the board)
 	 */
 	public IndivNode getNode(HexPoint point)
 	{
@@ -867,25 +1348,31 @@ class IndivBoard implements BoardInterface
 	 */
 	public Collection<IndivNode> getPoints()
 	{
-		return map.values();
+		return points;
 	}
 
 	@Override
 	public NodeInterface getNode(int x, char y)
 	{
-		return map.get(new HexPoint(x, y));
+		int cell = BoardTopology.cell(x, y);
+		if (cell < 0)
+			return OFF_BOARD;
+
+		return nodes[cell];
 	}
 
 	@Override
 	public void applyMove(int x, char y, Player player)
 	{
-		map.get(new HexPoint(x, y)).setOccupied(player);
+		int cell = BoardTopology.cell(x, y);
+		if (cell >= 0)
+			nodes[cell].setOccupied(player);
 	}
 
 	@Override
 	public String toString()
 	{
-		return "IndivBoard [map=" + map + "]";
+		return "IndivBoard [nodes=" + points + "]";
 	}
 
 }
@@ -901,6 +1388,7 @@ class IndivNode implements NodeInterface
 {
 	private int x; // our 'x' location
 	private char y; // our 'y' location
+	private int cell; // our index in the BoardTopology tables
 	private Player occupied; // who currently owns the space
 	private List<HexPoint> points; // only has one
 
@@ -924,11 +1412,10 @@ class IndivNode implements NodeInterface
 	{
 		this.x = x;
 		this.y = y;
+		this.cell = BoardTopology.cell(x, y);
 		this.occupied = occupied;
 
-		points = new ArrayList<HexPoint>();
-		points.add(new HexPoint(x, y));
-		
+		points = Collections.singletonList(HexPoint.at(x, y));
 	}
 
 	
@@ -956,6 +1443,15 @@ class IndivNode implements NodeInterface
 		return y;
 	}
 
+	/**
+	 * Gets the index of this spot in the {@link BoardTopology} tables
+	 * @return The cell index
+	 */
+	public int getCell()
+	{
+		return cell;
+	}
+
 	@Override
 	public Player getOccupied()
 	{
@@ -984,24 +1480,10 @@ class IndivNode implements NodeInterface
 	 */
 	public List<HexPoint> getTwoChains()
 	{
-		List<HexPoint> twoChains = new ArrayList<HexPoint>();
-		
-		HexPoint[] chains = new HexPoint[6];
-
-		chains[0] = new HexPoint(x + 1, (char) (y - 2));
-		chains[1] = new HexPoint(x + 2, (char) (y - 1));
-		chains[2] = new HexPoint(x + 1, (char) (y + 1));
-		chains[3] = new HexPoint(x - 1, (char) (y + 2));
-		chains[4] = new HexPoint(x - 2, (char) (y + 1));
-		chains[5] = new HexPoint(x - 1, (char) (y - 1));
-		
-		for (HexPoint h : chains)
-		{
-			if (h.isGood())
-				twoChains.add(h);
-		}
-		
-		return twoChains;
+		if (cell < 0)
+			return Collections.emptyList(); // off the board
+
+		return BoardTopology.twoChains(cell);
 	}
 
 	/**
@@ -1023,6 +1505,149 @@ class IndivNode implements NodeInterface
 
 }
 
+/**
+ * Where a move can come from, in the order {@link SolverController} tries them
+ * 
+ * @author Daniel Centore
+ *
+ */
+enum Phase
+{
+	BOOK, // the opening book
+	OPENING, // our fixed first move
+	VC, // updating the virtual connections and playing a decided game out
+	PRUNE, // finding the dead and captured cells
+	BASE_CHAINS, // fixing two-chains to the wall
+	TWO_CHAINS, // fixing two-chains between points
+	CLASSIC_BLOCK, // the classic block
+	ACROSS, // checking if we're connected across
+	FILL_WALL, // filling in the wall nodes
+	FILL_SPACES, // filling in two-chains
+	DIJKSTRA, // building the dijkstra board
+	IMMEDIATE, // immediate 1-step fixes
+	FOLLOW_CHAIN, // following the chain across
+	VC_BLOCK, // getting in the way of their winning connections
+	RANDOM // nothing else came up
+}
+
+/**
+ * Keeps track of what each {@link Phase} of choosing a move costs, how often it blows up,
+ *    and how often it's the one that gives us the move
+ * Only one phase runs at a time so we just remember which one it is
+ * 
+ * @author Daniel Centore
+ *
+ */
+class PhaseStats
+{
+	private static final Phase[] PHASES = Phase.values();
+
+	private long[] nanos = new long[PHASES.length]; // time spent in each phase
+	private int[] calls = new int[PHASES.length]; // times each phase ran
+	private int[] failures = new int[PHASES.length]; // exceptions caught in each phase
+	private int[] supplied = new int[PHASES.length]; // moves each phase came up with
+	private int games = 0;
+	private int moves = 0;
+
+	private Phase running = null; // the phase being timed (or null if none)
+	private long started; // System.nanoTime() it started at
+
+	/**
+	 * Starts timing a phase
+	 * @param phase The {@link Phase}
+	 */
+	public void start(Phase phase)
+	{
+		running = phase;
+		started = System.nanoTime();
+	}
+
+	/**
+	 * Stops timing the running phase
+	 */
+	public void stop()
+	{
+		if (running == null)
+			return;
+
+		nanos[running.ordinal()] += System.nanoTime() - started;
+		calls[running.ordinal()]++;
+		running = null;
+	}
+
+	/**
+	 * Notes that the running phase threw an exception, and stops timing it
+	 */
+	public void failed()
+	{
+		if (running != null)
+			failures[running.ordinal()]++;
+
+		stop();
+	}
+
+	/**
+	 * Notes which phase the move we played came from
+	 * @param phase The {@link Phase} (or null if we lost track)
+	 */
+	public void supplied(Phase phase)
+	{
+		if (phase != null)
+			supplied[phase.ordinal()]++;
+
+		moves++;
+	}
+
+	/**
+	 * Notes that a game is over
+	 */
+	public void endGame()
+	{
+		games++;
+	}
+
+	/**
+	 * Adds another set of stats onto these
+	 * @param other The {@link PhaseStats} to add in
+	 */
+	public void add(PhaseStats other)
+	{
+		for (int i = 0; i < PHASES.length; i++)
+		{
+			nanos[i] += other.nanos[i];
+			calls[i] += other.calls[i];
+			failures[i] += other.failures[i];
+			supplied[i] += other.supplied[i];
+		}
+
+		games += other.games;
+		moves += other.moves;
+	}
+
+	/**
+	 * Lays the stats out as a table, leaving out phases that never ran
+	 * @param title What to put at the top
+	 * @return The table
+	 */
+	public String summary(String title)
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append(String.format("%s: %d games, %d moves%n", title, games, moves));
+		buf.append(String.format("  %-14s %7s %10s %10s %7s %6s%n", "phase", "calls", "total ms", "avg us", "errors", "moves"));
+
+		for (int i = 0; i < PHASES.length; i++)
+		{
+			if (calls[i] == 0 && supplied[i] == 0)
+				continue;
+
+			buf.append(String.format("  %-14s %7d %10.1f %10.1f %7d %6d%n", PHASES[i].name().toLowerCase(), calls[i],
+					nanos[i] / 1e6, calls[i] == 0 ? 0 : nanos[i] / 1e3 / calls[i], failures[i], supplied[i]));
+		}
+
+		return buf.toString();
+	}
+}
+
 /**
  * This is the main solver class which links some other solver info
  * Vocabulary: 
@@ -1044,6 +1669,15 @@ class SolverController
 	private HexPoint first = null; // the first move we made (so we can calculate left and right sides correctly)
 	protected MapTools mapTools = new MapTools();
 	private FollowChain followChain;
+	private VirtualConnections ours = null; // our virtual connections (made once we know which way we connect)
+	private VirtualConnections theirs = null; // and the opponent's
+	private InferiorCells inferior = new InferiorCells(BoardTopology.SIZE); // dead and captured cells, kept up with the board
+	protected long[] pruned = new long[2]; // cells we have no need to play this move (see InferiorCells)
+	private PhaseStats stats; // what each phase costs us (shared with the CurrentGame)
+	private Phase source = null; // the phase our last move came from
+
+	// Points next to the corners where there is no room for a two-chain to the wall
+	private static final HexPoint[] CORNERS = { HexPoint.at(11, 'b'), HexPoint.at(1, 'j'), HexPoint.at(2, 'k'), HexPoint.at(10, 'a') };
 
 	/**
 	 * Creates a new {@link SolverController}
@@ -1053,93 +1687,220 @@ class SolverController
 	{
 		this.curr = curr;
 		indivBoard = curr.getBoardController().getIndivBoard();
+		stats = curr.getStats();
 		classicBlock = new ClassicBlock(indivBoard, curr);
 		followChain = new FollowChain(this);
 	}
 
 	/**
 	 * Chooses our next move
+	 * Once the virtual connections say the game is decided we play by them; otherwise we make sure our
+	 *    usual move doesn't let them through
 	 * @param lastMove The last move made by the opponent
 	 * @return The next {@link HexPoint} to occupy
 	 */
 	public HexPoint getMove(HexPoint lastMove)
 	{
-		HexPoint broken = null;
+		source = null;
 
-		try
-		{
-			// Fix chains between a point and the wall if necessary
-			broken = baseTwoChainsBroken(false, false);
-			if (broken != null)
-				return broken;
-		} catch (Exception e)
+		if (curr.getConnectRoute() < 0)
+			curr.setConnectRoute(CurrentGame.CONNECT_LETTERS); // we're second
+
+		if (ours == null)
 		{
-			// Fails on some corner cases. just ignore this.
+			boolean rows = (curr.getConnectRoute() == CurrentGame.CONNECT_NUMBERS);
+			ours = new VirtualConnections(indivBoard, Player.ME, rows);
+			theirs = new VirtualConnections(indivBoard, Player.YOU, !rows);
 		}
 
-		// Fix chains between points if necessary
-		try
-		{
-			broken = mapTools.twoChainsBroken(this, false);
-			if (broken != null)
-				return broken;
-		} catch (Exception e2)
+		stats.start(Phase.VC);
+		long now = System.nanoTime();
+		long half = (long) (VirtualConnections.timeLimit * 1e9 / 2);
+		long deadline = curr.deadline(); // VCTIME is the most we spend, but not past what the clock allows
+		ours.update(Math.min(now + half, deadline));
+		theirs.update(Math.min(System.nanoTime() + half, deadline));
+
+		int cell = ours.fillCell(); // already won - just fill it in
+		if (cell < 0)
+			cell = ours.winningCell(); // we win by going here
+		if (cell < 0 && theirs.won())
+			cell = theirs.fillCell(); // lost - don't waste time, just get in their way
+		stats.stop();
+		if (cell >= 0)
+			return found(Phase.VC, BoardTopology.point(cell));
+
+		if (curr.stopped())
+			return null; // too late - the watchdog sent something else
+
+		stats.start(Phase.PRUNE);
+		pruned = findPruned();
+		stats.stop();
+
+		HexPoint move = heuristicMove(lastMove);
+
+		// If they can win from here we have to play somewhere all their connections need
+		stats.start(Phase.VC_BLOCK);
+		long[] region = theirs.mustPlay();
+		if (region != null && (move == null || !VirtualConnections.includes(region, move)))
 		{
+			cell = VirtualConnections.pick(region, theirs.winningCell());
+			if (cell >= 0)
+				move = found(Phase.VC_BLOCK, BoardTopology.point(cell));
 		}
+		stats.stop();
 
-		try
-		{
-			// Does a classic block if necessary
-			if (classicBlock.shouldBlock())
-			{
-				broken = classicBlock.block(lastMove);
+		return move;
+	}
 
-				if (broken != null)
-					return broken;
-			}
-		} catch (Exception e1)
+	/**
+	 * Remembers which phase came up with a move
+	 * @param phase The {@link Phase}
+	 * @param move The {@link HexPoint} it came up with (or null if none)
+	 * @return The same move
+	 */
+	private HexPoint found(Phase phase, HexPoint move)
+	{
+		if (move != null)
+			source = phase;
+
+		return move;
+	}
+
+	/**
+	 * Gets the phase our last move came from
+	 * @return The {@link Phase} (or null if we haven't come up with a move)
+	 */
+	public Phase getSource()
+	{
+		return source;
+	}
+
+	/**
+	 * Brings the dead cell tables up to date with the board, only touching what changed
+	 * @return The cells we have no need to play
+	 */
+	private long[] findPruned()
+	{
+		byte me = (curr.getConnectRoute() == CurrentGame.CONNECT_NUMBERS ? InferiorCells.HOME : InferiorCells.AWAY);
+		byte you = (me == InferiorCells.HOME ? InferiorCells.AWAY : InferiorCells.HOME);
+
+		byte[] board = new byte[BoardTopology.CELLS];
+		boolean rebuild = false;
+		for (int cell = 0; cell < BoardTopology.CELLS; cell++)
 		{
+			Player player = indivBoard.getNode(BoardTopology.point(cell)).getOccupied();
+			board[cell] = (player == Player.ME ? me : player == Player.YOU ? you : InferiorCells.EMPTY);
+
+			if (board[cell] == inferior.get(cell))
+				continue;
+
+			if (inferior.get(cell) != InferiorCells.EMPTY)
+				rebuild = true; // a stone went away
+			else
+				inferior.set(cell, board[cell]);
 		}
 
-		if (mapTools.across(this, true) && mapTools.across(this, false))
-		{
-			// start filling in pieces because we've completed an almost-guaranteed connection of 2-chains and it was
-			// (hopefully) not disrupted during the last move
-			try
-			{
-				broken = fillWall();
+		if (rebuild)
+			inferior.setAll(board);
 
-				if (broken != null)
-					return broken;
-			} catch (Exception e1)
-			{
-			}
+		return inferior.prunable(me);
+	}
 
-			try
-			{
-				broken = fillSpaces();
+	/**
+	 * Tells if we have no need to play a point
+	 * @param point The {@link HexPoint}
+	 * @return True if it's dead or captured (or no better than another move); False otherwise
+	 */
+	protected boolean isPruned(HexPoint point)
+	{
+		int cell = point.cell();
+		return cell >= 0 && InferiorCells.has(pruned, cell);
+	}
 
-				if (broken != null)
-					return broken;
-			} catch (Exception e1)
-			{
-			}
-		}
+	/**
+	 * Chooses our next move with the usual patterns and chains
+	 * @param lastMove The last move made by the opponent
+	 * @return The next {@link HexPoint} to occupy (or null if nothing came up)
+	 */
+	private HexPoint heuristicMove(HexPoint lastMove)
+	{
+		// Each step gives back null when it has nothing to say, and we move on to the next one
+		// (and if the watchdog has given up on us we just stop)
+
+		// Fix chains between a point and the wall if necessary
+		stats.start(Phase.BASE_CHAINS);
+		HexPoint broken = baseTwoChainsBroken(false, false);
+		stats.stop();
+		if (broken != null)
+			return found(Phase.BASE_CHAINS, broken);
+
+		// Fix chains between points if necessary
+		stats.start(Phase.TWO_CHAINS);
+		broken = mapTools.twoChainsBroken(this, false);
+		stats.stop();
+		if (broken != null)
+			return found(Phase.TWO_CHAINS, broken);
+
+		if (curr.stopped())
+			return null;
+
+		// Does a classic block if necessary
+		stats.start(Phase.CLASSIC_BLOCK);
+		if (classicBlock.shouldBlock())
+			broken = classicBlock.block(lastMove);
+		stats.stop();
+		if (broken != null)
+			return found(Phase.CLASSIC_BLOCK, broken);
 
-		dijkstraBoard = new DijkstraBoard(indivBoard, curr); // create our dijkstra's board
+		stats.start(Phase.ACROSS);
+		boolean across = mapTools.across(this, true) && mapTools.across(this, false);
+		stats.stop();
 
-		try
+		if (across)
 		{
-			// grab immediate 1-step fixes
-			broken = immediatePoint();
+			// start filling in pieces because we've completed an almost-guaranteed connection of 2-chains and it was
+			// (hopefully) not disrupted during the last move
+			stats.start(Phase.FILL_WALL);
+			broken = fillWall();
+			stats.stop();
 			if (broken != null)
-				return broken;
-		} catch (Exception e)
+				return found(Phase.FILL_WALL, broken);
+
+			if (curr.stopped())
+				return null;
+
+			stats.start(Phase.FILL_SPACES);
+			broken = fillSpaces();
+			stats.stop();
+			if (broken != null)
+				return found(Phase.FILL_SPACES, broken);
+		}
+
+		if (dijkstraBoard == null)
 		{
+			// create our dijkstra's board (the BoardController keeps it up to date from here on)
+			stats.start(Phase.DIJKSTRA);
+			dijkstraBoard = new DijkstraBoard(indivBoard, curr);
+			curr.getBoardController().addBoard(dijkstraBoard);
+			stats.stop();
 		}
 
+		// grab immediate 1-step fixes
+		stats.start(Phase.IMMEDIATE);
+		broken = immediatePoint();
+		stats.stop();
+		if (broken != null)
+			return found(Phase.IMMEDIATE, broken);
+
+		if (curr.stopped())
+			return null;
+
 		// follow chain down/across board
-		return followChain.followChain(this, lastMove);
+		stats.start(Phase.FOLLOW_CHAIN);
+		broken = followChain.followChain(this, lastMove);
+		stats.stop();
+
+		return found(Phase.FOLLOW_CHAIN, broken);
 	}
 
 	/**
@@ -1213,7 +1974,7 @@ class SolverController
 			{
 				for (HexPoint around : node.getPoints().get(0).touching())
 				{
-					if (mapTools.connectedToWall(this, around) && indivBoard.getNode(around).getOccupied() == Player.EMPTY)
+					if (mapTools.connectedToWall(this, around) && indivBoard.getNode(around).getOccupied() == Player.EMPTY && !isPruned(around))
 					{
 						boolean left = false;
 						if ((curr.getConnectRoute() == CurrentGame.CONNECT_LETTERS && around.getY() < 'f') ||
@@ -1257,10 +2018,8 @@ class SolverController
 			{
 				HexPoint pt = node.getPoints().get(0);
 
-				HexPoint[] bad = { new HexPoint(11, 'b'), new HexPoint(1, 'j'), new HexPoint(2, 'k'), new HexPoint(10, 'a') };
-
 				// Skip the corners - We can't two-chain here!
-				for (HexPoint b : bad)
+				for (HexPoint b : CORNERS)
 				{
 					if (node.equals(b))
 						continue niceloop;
@@ -1367,6 +2126,14 @@ class SolverController
 		this.first = first;
 	}
 
+	/**
+	 * Stops us from starting (or carrying on with) the classic block
+	 */
+	public void skipClassicBlock()
+	{
+		classicBlock.giveUp();
+	}
+
 }
 
 /**
@@ -1411,10 +2178,8 @@ class ClassicBlock
 	public HexPoint block(HexPoint lastMove)
 	{
 		// Intialize stuff if we're just starting
-		if (part == 1)
-		{
-			initialize();
-		}
+		if (part == 1 && !initialize())
+			return null; // nothing of theirs to block yet
 
 		HexPoint pt = null;
 
@@ -1513,20 +2278,21 @@ class ClassicBlock
 
 	/**
 	 * Initializes our data for the first move
+	 * @return True if we're ready to block; False if they haven't got a point down to block
 	 */
-	private void initialize()
+	private boolean initialize()
 	{
 		// Find their initial point (they should definitely have one the 1st time this gets called)
 		for (IndivNode node : indivBoard.getPoints())
 		{
 			if (node.getOccupied() == Player.YOU)
 			{
-				initial = new HexPoint(node.getX(), node.getY());
+				initial = HexPoint.at(node.getX(), node.getY());
 			}
 		}
 
 		if (initial == null)
-			throw new RuntimeException("THEY HAD NO INITIAL POINT!!! WHY ARE WE DOING A CLASSIC BLOCK!?!?");
+			return false; // why are we doing a classic block!?
 
 		// Figure out which group of points makes the most sense for our current situation
 		HexPoint[] group = null;
@@ -1554,8 +2320,18 @@ class ClassicBlock
 			int xDiff = group[0].getX() - group[i + 1].getX();
 			int yDiff = group[0].getY() - group[i + 1].getY();
 
-			blockPoints[i] = new HexPoint(initial.getX() + xDiff, (char) (initial.getY() + yDiff));
+			blockPoints[i] = HexPoint.at(initial.getX() + xDiff, (char) (initial.getY() + yDiff));
 		}
+
+		return true;
+	}
+
+	/**
+	 * Gives up on the block for the rest of the game
+	 */
+	public void giveUp()
+	{
+		part = 50;
 	}
 
 	/**
@@ -1629,6 +2405,17 @@ class FollowChain
 			}
 		}
 
+		// Leave out points nobody needs to play (unless that's all there is)
+		List<HexPoint> useful = new ArrayList<HexPoint>();
+		for (HexPoint pnt : possible)
+		{
+			if (!solverController.isPruned(pnt))
+				useful.add(pnt);
+		}
+
+		if (!useful.isEmpty())
+			possible = useful;
+
 		Iterator<HexPoint> itr = possible.iterator();
 
 		double left = Double.MAX_VALUE;
@@ -1642,25 +2429,31 @@ class FollowChain
 		if (!itr.hasNext())
 			return null;
 
+		// One pass each for the walls and the last move, then every candidate is just a lookup
+		int[] leftField = distanceField(solverController, true);
+		int[] rightField = distanceField(solverController, false);
+		int[] lastField = solverController.dijkstraBoard.distancesFrom(lastMove);
+
 		// Find the best move for connecting to both the left and right walls
 		do
 		{
 			HexPoint h = itr.next();
+			int cell = h.cell();
 
-			double leftDist = calculateDistance(solverController, h, true);
-			double rightDist = calculateDistance(solverController, h, false);
+			double leftDist = leftField[cell];
+			double rightDist = rightField[cell];
 
 			if (leftDist < left)
 			{
 				bestLeft = h;
-				leftLast = solverController.dijkstraBoard.findDistance(lastMove, h);
+				leftLast = lastField[cell];
 				left = leftDist;
 			}
 
 			if (rightDist < right)
 			{
 				bestRight = h;
-				rightLast = solverController.dijkstraBoard.findDistance(lastMove, h);
+				rightLast = lastField[cell];
 				right = rightDist;
 			}
 
@@ -1720,7 +2513,17 @@ class FollowChain
 	 */
 	protected double calculateDistance(SolverController solverController, HexPoint pnt, boolean left)
 	{
+		return distanceField(solverController, left)[pnt.cell()];
+	}
 
+	/**
+	 * Figures out how hard it would be to get from every point to the closest wall
+	 * @param solverController Our {@link SolverController}
+	 * @param left Are we on the left side?
+	 * @return The difficulties, by cell index (arbitrary scale)
+	 */
+	protected int[] distanceField(SolverController solverController, boolean left)
+	{
 		DijkstraNode wall;
 
 		if (solverController.curr.getConnectRoute() == CurrentGame.CONNECT_LETTERS)
@@ -1738,94 +2541,675 @@ class FollowChain
 				wall = solverController.dijkstraBoard.getWallEle();
 		}
 
-		double dist = solverController.dijkstraBoard.findDistance(pnt, wall);
-
-		return dist;
+		return solverController.dijkstraBoard.distancesTo(wall);
 	}
 
 }
 
 /**
- * Class which handles functions directly pertaining to the structure of the map (board)
+ * Virtual connections for one player, found with H-search (Anshelevich)
+ * A connection between two nodes is full if the player can link them even moving second, and semi if only moving first
+ *    The nodes are empty cells, groups of the player's stones and the player's two edges
+ *    Each connection comes with its carrier (the empty cells it needs) as a 121-bit set in two longs
+ *    Base connections are between touching nodes. Two fulls through an empty cell make a semi (keyed by that cell),
+ *    and through one of our groups a full. Semis whose carriers have nothing in common make a full.
+ * The connections are kept from move to move: a stone of ours merges its groups and shrinks carriers,
+ *    one of theirs kills the connections it lands in. Only what changed is searched again.
  * 
  * @author Daniel Centore
  *
  */
-class MapTools
+class VirtualConnections
 {
+	static double timeLimit = 0.2; // seconds we may spend on an update (split between both players)
+
+	private static final int EDGE_A = BoardTopology.CELLS; // the player's first edge (row 1 or column a)
+	private static final int EDGE_B = BoardTopology.CELLS + 1; // the player's far edge
+	private static final int NODES = BoardTopology.CELLS + 2;
+	private static final int MAX_FULL = 4; // connections kept per pair of nodes
+	private static final int MAX_SEMI = 12;
+
+	private IndivBoard indivBoard;
+	private Player player;
+	private boolean rows; // True if the player connects 1 to 11; False if a to k
+
+	private Player[] seen = new Player[BoardTopology.CELLS]; // the board as of the last update (null before the first)
+	private int[] node = new int[BoardTopology.CELLS]; // the node each cell belongs to (-1 for the opponent's stones)
+	private Pair[] pairs = new Pair[NODES * NODES]; // connections by (smaller node * NODES + bigger node)
+
+	// Full connections still to be combined with others: {carrier low, carrier high, node, node}
+	// Whatever a search had no time for waits here for the next update
+	private ArrayDeque<long[]> queue = new ArrayDeque<long[]>();
 
 	/**
-	 * Checks to see if there are two-chains all the way across the board
-	 * Assumes that all points are connected either by bridges or directly touching, so this 
-	 *    will fail if we have resorted to random. Our fate is basically determined by then
-	 *    anyways.
-	 * @param solverController The {@link SolverController} we are linked with
-	 * @param left The side to check for
-	 * @return True if there is a two-chain path across the board, false if not
+	 * The connections between two nodes
+	 * Fulls are {carrier low, carrier high, node, node}; semis are {carrier low, carrier high, key cell}
 	 */
-	protected boolean across(SolverController solverController, boolean left)
+	private static class Pair
 	{
-		boolean a = false;
-		boolean b = false;
+		List<long[]> full = new ArrayList<long[]>(MAX_FULL);
+		List<long[]> semi = new ArrayList<long[]>(MAX_SEMI);
+	}
 
-		for (IndivNode node : solverController.indivBoard.getPoints())
+	/**
+	 * Creates the connections for a player
+	 * @param indivBoard The {@link IndivBoard} to follow
+	 * @param player The {@link Player} we find connections for
+	 * @param rows True if they connect 1 to 11; False if a to k
+	 */
+	public VirtualConnections(IndivBoard indivBoard, Player player, boolean rows)
+	{
+		this.indivBoard = indivBoard;
+		this.player = player;
+		this.rows = rows;
+	}
+
+	/**
+	 * Brings the connections up to date with the {@link IndivBoard}
+	 * @param deadline System.nanoTime() to give up searching at (whatever was found so far still holds)
+	 */
+	public void update(long deadline)
+	{
+		List<Integer> ours = new ArrayList<Integer>();
+		List<Integer> theirs = new ArrayList<Integer>();
+		boolean rebuild = (seen[0] == null);
+
+		for (int cell = 0; cell < BoardTopology.CELLS; cell++)
 		{
-			if (node.getOccupied() == Player.ME)
-			{
-				if (solverController.curr.getConnectRoute() == CurrentGame.CONNECT_LETTERS)
-				{
-					if (node.getY() == 'a')
-						a = true;
-					else if (node.getY() == 'b')
-					{
-						// check the connection to the wall
-						HexPoint[] k = { new HexPoint(node.getX(), 'a'), new HexPoint(node.getX() + 1, 'a') };
-						List<HexPoint> good = new ArrayList<HexPoint>();
-						for (HexPoint j : k)
-						{
-							if (j.isGood())
-								good.add(j);
-						}
+			Player now = indivBoard.getNode(BoardTopology.point(cell)).getOccupied();
+			if (now != player && now != Player.EMPTY)
+				now = (player == Player.ME ? Player.YOU : Player.ME); // the other side's stone, whatever it's marked as
 
-						if (IndivNode.empty(good, solverController.indivBoard) && good.size() == 2) // only if both connections are good
-							a = true;
-					}
+			if (now == seen[cell])
+				continue;
 
-					if (node.getY() == 'k')
-						b = true;
-					else if (node.getY() == 'j')
-					{
-						// check the connection to the wall
-						HexPoint[] k = { new HexPoint(node.getX(), 'k'), new HexPoint(node.getX() - 1, 'k') };
+			if (seen[cell] != Player.EMPTY)
+				rebuild = true; // a stone went away (or we're just starting); nothing we had can be trusted
+			else if (now == player)
+				ours.add(cell);
+			else
+				theirs.add(cell);
 
-						List<HexPoint> good = new ArrayList<HexPoint>();
-						for (HexPoint j : k)
-						{
-							if (j.isGood())
-								good.add(j);
-						}
+			seen[cell] = now;
+		}
 
-						if (IndivNode.empty(good, solverController.indivBoard) && good.size() == 2) // only if both connections are good
-							b = true;
-					}
-				}
-				else
-				{
+		if (rebuild)
+		{
+			Arrays.fill(pairs, null);
+			queue.clear();
+			findNodes();
+			addBase();
+		}
+		else if (!ours.isEmpty() || !theirs.isEmpty())
+		{
+			for (int cell : theirs)
+				blocked(cell);
+
+			if (!ours.isEmpty())
+			{
+				int[] old = node.clone();
+				findNodes();
+				for (int cell : ours)
+					occupied(cell, old);
+
+				addBase();
+			}
+		}
+
+		search(deadline);
+	}
+
+	/**
+	 * Works out which node every cell is part of
+	 */
+	private void findNodes()
+	{
+		Arrays.fill(node, -1);
+		int[] stack = new int[BoardTopology.CELLS];
+
+		for (int cell = 0; cell < BoardTopology.CELLS; cell++)
+		{
+			if (seen[cell] == Player.EMPTY)
+				node[cell] = cell;
+			else if (seen[cell] == player && node[cell] < 0)
+			{
+				// flood the group; the first cell we come to names it
+				int size = 0;
+				stack[size++] = cell;
+				node[cell] = cell;
+				while (size > 0)
+				{
+					int at = stack[--size];
+					for (int touch : BoardTopology.NEIGHBORS[at])
+					{
+						if (seen[touch] == player && node[touch] < 0)
+						{
+							node[touch] = cell;
+							stack[size++] = touch;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a full connection with no carrier between every two touching nodes
+	 */
+	private void addBase()
+	{
+		for (int cell = 0; cell < BoardTopology.CELLS; cell++)
+		{
+			if (node[cell] < 0)
+				continue;
+
+			for (int touch : BoardTopology.NEIGHBORS[cell])
+			{
+				if (node[touch] >= 0 && node[touch] != node[cell])
+					addFull(node[cell], node[touch], 0, 0);
+			}
+
+			int line = (rows ? cell / BoardTopology.SIZE : cell % BoardTopology.SIZE);
+			if (line == 0)
+				addFull(node[cell], EDGE_A, 0, 0);
+			if (line == BoardTopology.SIZE - 1)
+				addFull(node[cell], EDGE_B, 0, 0);
+		}
+	}
+
+	/**
+	 * The opponent took a cell: it is no longer a node, and every connection through it is gone
+	 * Connections that shared pairs with the dead ones get searched again, in case a dropped one can take over
+	 * @param cell The cell index
+	 */
+	private void blocked(int cell)
+	{
+		node[cell] = -1;
+
+		for (int a = 0; a < NODES; a++)
+		{
+			for (int b = a + 1; b < NODES; b++)
+			{
+				Pair pair = pairs[a * NODES + b];
+				if (pair == null)
+					continue;
+
+				if (a == cell || b == cell)
+				{
+					pairs[a * NODES + b] = null;
+					continue;
+				}
+
+				boolean lost = false;
+				for (Iterator<long[]> it = pair.full.iterator(); it.hasNext();)
+				{
+					if (has(it.next(), cell))
+					{
+						it.remove();
+						lost = true;
+					}
+				}
+
+				for (Iterator<long[]> it = pair.semi.iterator(); it.hasNext();)
+				{
+					if (has(it.next(), cell))
+						it.remove();
+				}
+
+				if (lost)
+					queue.addAll(pair.full);
+			}
+		}
+	}
+
+	/**
+	 * We took a cell: the groups it touches are now one node, it leaves every carrier,
+	 *    and semis keyed on it are now full
+	 * @param cell The cell index
+	 * @param old Which node each cell was part of before
+	 */
+	private void occupied(int cell, int[] old)
+	{
+		int group = node[cell];
+		long lo = (cell < 64 ? 1L << cell : 0);
+		long hi = (cell < 64 ? 0 : 1L << (cell - 64));
+
+		Pair[] before = pairs;
+		pairs = new Pair[NODES * NODES];
+
+		for (int a = 0; a < NODES; a++)
+		{
+			for (int b = a + 1; b < NODES; b++)
+			{
+				Pair pair = before[a * NODES + b];
+				if (pair == null)
+					continue;
+
+				// nodes that were swallowed by the group are now the group (and connections inside it go away)
+				int newA = (a < BoardTopology.CELLS && old[a] == a && node[a] == group ? group : a);
+				int newB = (b < BoardTopology.CELLS && old[b] == b && node[b] == group ? group : b);
+				if (newA == newB)
+					continue;
+
+				boolean merged = (newA != a || newB != b);
+				for (long[] full : pair.full)
+				{
+					if (merged || has(full, cell))
+						addFull(newA, newB, full[0] & ~lo, full[1] & ~hi);
+					else
+						keep(newA, newB).full.add(full);
+				}
+
+				for (long[] semi : pair.semi)
+				{
+					if (semi[2] == cell)
+						addFull(newA, newB, semi[0] & ~lo, semi[1] & ~hi);
+					else
+						keep(newA, newB).semi.add(new long[] { semi[0] & ~lo, semi[1] & ~hi, semi[2] });
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the connections between two nodes, making room for them if need be
+	 * @param a A node
+	 * @param b Another node
+	 * @return Their {@link Pair}
+	 */
+	private Pair keep(int a, int b)
+	{
+		int index = (a < b ? a * NODES + b : b * NODES + a);
+		if (pairs[index] == null)
+			pairs[index] = new Pair();
+
+		return pairs[index];
+	}
+
+	/**
+	 * Gets the connections between two nodes
+	 * @param a A node
+	 * @param b Another node
+	 * @return Their {@link Pair} (or null if there are none)
+	 */
+	private Pair pair(int a, int b)
+	{
+		return pairs[a < b ? a * NODES + b : b * NODES + a];
+	}
+
+	/**
+	 * Records a full connection unless we already know a better one
+	 * @param a A node
+	 * @param b Another node
+	 * @param lo The carrier's cells 0-63
+	 * @param hi The carrier's cells 64-120
+	 */
+	private void addFull(int a, int b, long lo, long hi)
+	{
+		Pair pair = keep(a, b);
+		for (Iterator<long[]> it = pair.full.iterator(); it.hasNext();)
+		{
+			long[] full = it.next();
+			if ((full[0] & ~lo) == 0 && (full[1] & ~hi) == 0)
+				return; // we have one that needs no more than this
+
+			if ((lo & ~full[0]) == 0 && (hi & ~full[1]) == 0)
+				it.remove(); // this one needs less
+		}
+
+		if (pair.full.size() >= MAX_FULL)
+			return;
+
+		long[] full = { lo, hi, a, b };
+		pair.full.add(full);
+		queue.add(full);
+	}
+
+	/**
+	 * Records a semi connection unless we already know a better one, and sees if it completes a full one
+	 * @param a A node
+	 * @param b Another node
+	 * @param lo The carrier's cells 0-63 (including the key)
+	 * @param hi The carrier's cells 64-120
+	 * @param key The cell that turns it into a full connection
+	 */
+	private void addSemi(int a, int b, long lo, long hi, int key)
+	{
+		Pair pair = keep(a, b);
+		for (long[] full : pair.full)
+		{
+			if ((full[0] & ~lo) == 0 && (full[1] & ~hi) == 0)
+				return;
+		}
+
+		for (long[] semi : pair.semi)
+		{
+			if ((semi[0] & ~lo) == 0 && (semi[1] & ~hi) == 0)
+				return;
+		}
+
+		if (pair.semi.size() >= MAX_SEMI)
+			return;
+
+		// Two semis with nothing in common are full; failing that, try piling them up until nothing is shared
+		long andLo = lo, andHi = hi, orLo = lo, orHi = hi;
+		for (long[] semi : pair.semi)
+		{
+			if ((semi[0] & lo) == 0 && (semi[1] & hi) == 0)
+			{
+				addFull(a, b, lo | semi[0], hi | semi[1]);
+				break;
+			}
+
+			if ((andLo & semi[0]) != andLo || (andHi & semi[1]) != andHi)
+			{
+				andLo &= semi[0];
+				andHi &= semi[1];
+				orLo |= semi[0];
+				orHi |= semi[1];
+				if (andLo == 0 && andHi == 0)
+				{
+					addFull(a, b, orLo, orHi);
+					break;
+				}
+			}
+		}
+
+		pair.semi.add(new long[] { lo, hi, key });
+	}
+
+	/**
+	 * Combines connections until there is nothing new to find or we run out of time
+	 * @param deadline System.nanoTime() to stop at
+	 */
+	private void search(long deadline)
+	{
+		int steps = 0;
+		while (!queue.isEmpty())
+		{
+			if ((++steps & 63) == 0 && System.nanoTime() > deadline)
+				return;
+
+			long[] full = queue.poll();
+			int a = (int) full[2], b = (int) full[3];
+			Pair pair = pair(a, b);
+			if (pair == null || !pair.full.contains(full))
+				continue; // it was replaced by a better one
+
+			combine(full, a, b);
+			combine(full, b, a);
+		}
+	}
+
+	/**
+	 * Joins a full connection to every other full connection leading on from one of its ends
+	 * @param full The connection
+	 * @param from The end we start from
+	 * @param middle The end we carry on from (an empty cell or a group of ours)
+	 */
+	private void combine(long[] full, int from, int middle)
+	{
+		if (middle >= BoardTopology.CELLS)
+			return; // don't go through the edges
+
+		boolean empty = (seen[middle] == Player.EMPTY);
+		long middleLo = (empty && middle < 64 ? 1L << middle : 0);
+		long middleHi = (empty && middle >= 64 ? 1L << (middle - 64) : 0);
+
+		for (int to = 0; to < NODES; to++)
+		{
+			if (to == from || to == middle)
+				continue;
+
+			Pair pair = pair(middle, to);
+			if (pair == null || pair.full.isEmpty())
+				continue;
+
+			for (int i = 0; i < pair.full.size(); i++)
+			{
+				long[] next = pair.full.get(i);
+				if ((next[0] & full[0]) != 0 || (next[1] & full[1]) != 0)
+					continue; // they need the same cells
+				if (has(next, from) || has(full, to))
+					continue; // one goes through the other's end
+
+				if (empty)
+					addSemi(from, to, full[0] | next[0] | middleLo, full[1] | next[1] | middleHi, middle);
+				else
+					addFull(from, to, full[0] | next[0], full[1] | next[1]);
+			}
+		}
+	}
+
+	/**
+	 * Tells if a carrier includes a cell
+	 * @param carrier The carrier
+	 * @param cell The cell index (or a node that isn't a cell)
+	 * @return True if it does; False otherwise
+	 */
+	private static boolean has(long[] carrier, int cell)
+	{
+		if (cell >= BoardTopology.CELLS)
+			return false;
+
+		return (cell < 64 ? (carrier[0] >>> cell) & 1 : (carrier[1] >>> (cell - 64)) & 1) != 0;
+	}
+
+	/**
+	 * Lists the cells of a carrier
+	 * @param carrier The carrier
+	 * @return The cell indexes, in order
+	 */
+	private static List<Integer> cells(long[] carrier)
+	{
+		List<Integer> list = new ArrayList<Integer>();
+		for (int cell = 0; cell < BoardTopology.CELLS; cell++)
+		{
+			if (has(carrier, cell))
+				list.add(cell);
+		}
+
+		return list;
+	}
+
+	/**
+	 * Finds the smallest connection between the player's edges
+	 * @param full True for a full connection; False for a semi
+	 * @return It (or null if there isn't one)
+	 */
+	private long[] smallest(boolean full)
+	{
+		Pair pair = pair(EDGE_A, EDGE_B);
+		if (pair == null)
+			return null;
+
+		long[] best = null;
+		int bestSize = Integer.MAX_VALUE;
+		for (long[] vc : (full ? pair.full : pair.semi))
+		{
+			int size = Long.bitCount(vc[0]) + Long.bitCount(vc[1]);
+			if (size < bestSize)
+			{
+				best = vc;
+				bestSize = size;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Tells if the player has the game won, whatever the opponent does
+	 * @return True if their edges have a full connection
+	 */
+	public boolean won()
+	{
+		return smallest(true) != null;
+	}
+
+	/**
+	 * Finds a cell in the player's smallest winning connection
+	 * Playing it keeps the connection, so it's a safe move once the game is won
+	 * @return The cell index (or -1 if the game isn't won, or there's nothing left to fill)
+	 */
+	public int fillCell()
+	{
+		long[] full = smallest(true);
+		if (full == null)
+			return -1;
+
+		List<Integer> cells = cells(full);
+		return (cells.isEmpty() ? -1 : cells.get(0));
+	}
+
+	/**
+	 * Finds the move that wins the game for the player if they get to make it
+	 * @return The key of their smallest semi connection between edges (or -1 if there isn't one)
+	 */
+	public int winningCell()
+	{
+		long[] semi = smallest(false);
+		return (semi == null ? -1 : (int) semi[2]);
+	}
+
+	/**
+	 * Finds the cells the opponent has to play in to stop the player winning: the ones every
+	 *    connection between the edges needs
+	 * @return The cells (or null if the player has no such connection)
+	 */
+	public long[] mustPlay()
+	{
+		Pair pair = pair(EDGE_A, EDGE_B);
+		if (pair == null || (pair.full.isEmpty() && pair.semi.isEmpty()))
+			return null;
+
+		long[] region = { -1L, -1L };
+		for (long[] vc : pair.full)
+		{
+			region[0] &= vc[0];
+			region[1] &= vc[1];
+		}
+
+		for (long[] vc : pair.semi)
+		{
+			region[0] &= vc[0];
+			region[1] &= vc[1];
+		}
+
+		return region;
+	}
+
+	/**
+	 * Tells if a carrier (or region) includes a cell
+	 * @param carrier The carrier
+	 * @param point The {@link HexPoint}
+	 * @return True if it does; False otherwise
+	 */
+	public static boolean includes(long[] carrier, HexPoint point)
+	{
+		int cell = point.cell();
+		return cell >= 0 && has(carrier, cell);
+	}
+
+	/**
+	 * Picks a cell out of a region
+	 * @param region The cells
+	 * @param prefer The cell to take if it's there
+	 * @return The cell index (or -1 if the region is empty)
+	 */
+	public static int pick(long[] region, int prefer)
+	{
+		if (prefer >= 0 && has(region, prefer))
+			return prefer;
+
+		List<Integer> cells = cells(region);
+		return (cells.isEmpty() ? -1 : cells.get(0));
+	}
+}
+
+/**
+ * Class which handles functions directly pertaining to the structure of the map (board)
+ * 
+ * @author Daniel Centore
+ *
+ */
+class MapTools
+{
+
+	/**
+	 * Looks at the two cells between a point and the wall
+	 * @param board The {@link IndivBoard} to look at
+	 * @return How many of the two cells are on the board, or -1 if one of them is occupied
+	 */
+	private static int openWallCells(IndivBoard board, int x1, char y1, int x2, char y2)
+	{
+		int count = 0;
+
+		NodeInterface first = board.getNode(x1, y1);
+		if (first != null)
+		{
+			if (first.getOccupied() != Player.EMPTY)
+				return -1;
+			count++;
+		}
+
+		NodeInterface second = board.getNode(x2, y2);
+		if (second != null)
+		{
+			if (second.getOccupied() != Player.EMPTY)
+				return -1;
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Checks to see if there are two-chains all the way across the board
+	 * Assumes that all points are connected either by bridges or directly touching, so this 
+	 *    will fail if we have resorted to random. Our fate is basically determined by then
+	 *    anyways.
+	 * @param solverController The {@link SolverController} we are linked with
+	 * @param left The side to check for
+	 * @return True if there is a two-chain path across the board, false if not
+	 */
+	protected boolean across(SolverController solverController, boolean left)
+	{
+		boolean a = false;
+		boolean b = false;
+
+		for (IndivNode node : solverController.indivBoard.getPoints())
+		{
+			if (node.getOccupied() == Player.ME)
+			{
+				if (solverController.curr.getConnectRoute() == CurrentGame.CONNECT_LETTERS)
+				{
+					if (node.getY() == 'a')
+						a = true;
+					else if (node.getY() == 'b')
+					{
+						// check the connection to the wall
+						if (openWallCells(solverController.indivBoard, node.getX(), 'a', node.getX() + 1, 'a') == 2) // only if both connections are good
+							a = true;
+					}
+
+					if (node.getY() == 'k')
+						b = true;
+					else if (node.getY() == 'j')
+					{
+						// check the connection to the wall
+						if (openWallCells(solverController.indivBoard, node.getX(), 'k', node.getX() - 1, 'k') == 2) // only if both connections are good
+							b = true;
+					}
+				}
+				else
+				{
 					if (node.getX() == 1)
 						a = true;
 					else if (node.getX() == 2)
 					{
 						// check the connection to the wall
-						HexPoint[] k = { new HexPoint(1, node.getY()), new HexPoint(1, (char) (node.getY() + 1)) };
-
-						List<HexPoint> good = new ArrayList<HexPoint>();
-						for (HexPoint j : k)
-						{
-							if (j.isGood())
-								good.add(j);
-						}
-
-						if (IndivNode.empty(good, solverController.indivBoard)) // only if both connections are good
+						if (openWallCells(solverController.indivBoard, 1, node.getY(), 1, (char) (node.getY() + 1)) >= 0) // only if both connections are good
 							a = true;
 					}
 
@@ -1834,16 +3218,7 @@ class MapTools
 					else if (node.getX() == 10)
 					{
 						// check the connection to the wall
-						HexPoint[] k = { new HexPoint(11, node.getY()), new HexPoint(11, (char) (node.getY() - 1)) };
-
-						List<HexPoint> good = new ArrayList<HexPoint>();
-						for (HexPoint j : k)
-						{
-							if (j.isGood())
-								good.add(j);
-						}
-
-						if (IndivNode.empty(good, solverController.indivBoard)) // only if both connections are good
+						if (openWallCells(solverController.indivBoard, 11, node.getY(), 11, (char) (node.getY() - 1)) >= 0) // only if both connections are good
 							b = true;
 					}
 				}
@@ -1869,16 +3244,7 @@ class MapTools
 			else if (node.getY() == 'b')
 			{
 				// check the connection to the wall
-				HexPoint[] k = { new HexPoint(node.getX(), 'a'), new HexPoint(node.getX() + 1, 'a') };
-
-				List<HexPoint> good = new ArrayList<HexPoint>();
-				for (HexPoint j : k)
-				{
-					if (j.isGood())
-						good.add(j);
-				}
-
-				if (IndivNode.empty(good, solverController.indivBoard)) // only if both connections are good
+				if (openWallCells(solverController.indivBoard, node.getX(), 'a', node.getX() + 1, 'a') >= 0) // only if both connections are good
 					return true;
 			}
 
@@ -1887,16 +3253,7 @@ class MapTools
 			else if (node.getY() == 'j')
 			{
 				// check the connection to the wall
-				HexPoint[] k = { new HexPoint(node.getX(), 'k'), new HexPoint(node.getX() - 1, 'k') };
-
-				List<HexPoint> good = new ArrayList<HexPoint>();
-				for (HexPoint j : k)
-				{
-					if (j.isGood())
-						good.add(j);
-				}
-
-				if (IndivNode.empty(good, solverController.indivBoard)) // only if both connections are good
+				if (openWallCells(solverController.indivBoard, node.getX(), 'k', node.getX() - 1, 'k') >= 0) // only if both connections are good
 					return true;
 			}
 		}
@@ -1907,16 +3264,7 @@ class MapTools
 			else if (node.getX() == 2)
 			{
 				// check the connection to the wall
-				HexPoint[] k = { new HexPoint(1, node.getY()), new HexPoint(1, (char) (node.getY() + 1)) };
-
-				List<HexPoint> good = new ArrayList<HexPoint>();
-				for (HexPoint j : k)
-				{
-					if (j.isGood())
-						good.add(j);
-				}
-
-				if (IndivNode.empty(good, solverController.indivBoard)) // only if both connections are good
+				if (openWallCells(solverController.indivBoard, 1, node.getY(), 1, (char) (node.getY() + 1)) >= 0) // only if both connections are good
 					return true;
 			}
 
@@ -1925,16 +3273,7 @@ class MapTools
 			else if (node.getX() == 10)
 			{
 				// check the connection to the wall
-				HexPoint[] k = { new HexPoint(11, node.getY()), new HexPoint(11, (char) (node.getY() - 1)) };
-
-				List<HexPoint> good = new ArrayList<HexPoint>();
-				for (HexPoint j : k)
-				{
-					if (j.isGood())
-						good.add(j);
-				}
-
-				if (IndivNode.empty(good, solverController.indivBoard)) // only if both connections are good
+				if (openWallCells(solverController.indivBoard, 11, node.getY(), 11, (char) (node.getY() - 1)) >= 0) // only if both connections are good
 					return true;
 			}
 		}
@@ -1961,7 +3300,10 @@ class MapTools
 						List<HexPoint> connections = pnt.connections(node.getPoints().get(0));
 
 						if (connections.size() < 2)
-							throw new RuntimeException("Size less than 2!");
+							continue; // not a real bridge
+
+						if (solverController.dijkstraBoard == null)
+							return null; // no distances yet, so we can't tell what's worth fixing
 
 						HexPoint a = connections.get(0);
 						HexPoint b = connections.get(1);
@@ -1993,6 +3335,7 @@ class MapTools
 /**
  * Represents a single point on the hex grid
  * This is done by using a 1-11 number system for the rows, and a 'a'-'k' system for the columns
+ * Points are immutable, so the ones on the board are shared (see {@link #at(int, char)})
  * 
  * @author Daniel Centore
  * @author Mike DiBuduo
@@ -2001,8 +3344,8 @@ class MapTools
 class HexPoint
 {
 	// Location of our point
-	private int x;
-	private char y;
+	private final int x;
+	private final char y;
 
 	/**
 	 * Creates a representation of a single point on a grid
@@ -2016,6 +3359,18 @@ class HexPoint
 		this.y = y;
 	}
 
+	/**
+	 * Gets the shared {@link HexPoint} for a location without allocating (if it's on the board)
+	 * @param x The row
+	 * @param y The column
+	 * @return The point
+	 */
+	public static HexPoint at(int x, char y)
+	{
+		int cell = BoardTopology.cell(x, y);
+		return cell < 0 ? new HexPoint(x, y) : BoardTopology.point(cell);
+	}
+
 	/**
 	 * Returns true if its a valid point on a board
 	 * @return True if the point is in the 11x11 grid, false if not
@@ -2026,13 +3381,27 @@ class HexPoint
 		return (x >= 1 && x <= 11 && j >= 1 && j <= 11);
 	}
 
+	/**
+	 * Gets the index of this point in the {@link BoardTopology} tables
+	 * @return The cell index, or -1 if the point is off the board
+	 */
+	public int cell()
+	{
+		return BoardTopology.cell(x, y);
+	}
+
 	/**
 	 * Finds the 2 connections to a 2-bridge
 	 * @param bridge The second point that must be included in the 2-bridge
-	 * @return the 2 {@link HexPoint}s that can complete the two-chain
+	 * @return the 2 {@link HexPoint}s that can complete the two-chain (shared; do not modify)
 	 */
 	public List<HexPoint> connections(HexPoint bridge)
 	{
+		int a = cell();
+		int b = bridge.cell();
+		if (a >= 0 && b >= 0)
+			return BoardTopology.common(a, b);
+
 		List<HexPoint> mine = touching(); //all the points touching me
 		List<HexPoint> your = bridge.touching(); //all the points touching the other {@link HexPoint}
 
@@ -2053,27 +3422,15 @@ class HexPoint
 
 	/**
 	 * Generates an array of {@link HexPoint}s next to this {@link HexPoint}
-	 * @return An array of all the {@link HexPoint}s touching this {@link HexPoint}
+	 * @return An array of all the {@link HexPoint}s touching this {@link HexPoint} (shared; do not modify)
 	 */
 	public List<HexPoint> touching()
 	{
-		HexPoint[] hps = new HexPoint[6];
-
-		hps[0] = new HexPoint(x, (char) (y - 1));
-		hps[1] = new HexPoint(x + 1, (char) (y - 1));
-		hps[2] = new HexPoint(x + 1, y);
-		hps[3] = new HexPoint(x, (char) (y + 1));
-		hps[4] = new HexPoint(x - 1, (char) (y + 1));
-		hps[5] = new HexPoint(x - 1, y);
+		int cell = cell();
+		if (cell >= 0)
+			return BoardTopology.touching(cell);
 
-		List<HexPoint> result = new ArrayList<HexPoint>();
-		for (HexPoint h : hps)
-		{
-			if (h.isGood())
-				result.add(h);
-		}
-
-		return result;
+		return BoardTopology.onBoard(BoardTopology.NEIGHBOR_DX, BoardTopology.NEIGHBOR_DY, x, y);
 	}
 
 	/**
@@ -2085,15 +3442,6 @@ class HexPoint
 		return x;
 	}
 
-	/**
-	 * Sets the row
-	 * @param x The row to set this point to
-	 */
-	public void setX(int x)
-	{
-		this.x = x;
-	}
-
 	/**
 	 * Gets the column (char) of the point
 	 * @return y
@@ -2103,15 +3451,6 @@ class HexPoint
 		return y;
 	}
 
-	/**
-	 * Sets the column
-	 * @param y The column to set this point to
-	 */
-	public void setY(char y)
-	{
-		this.y = y;
-	}
-
 	@Override
 	public boolean equals(Object obj)
 	{
@@ -2154,6 +3493,176 @@ class HexPoint
 
 }
 
+/**
+ * Geometry of the 11x11 board, computed once so the solver doesn't have to allocate points and lists on every lookup
+ * Cells are numbered (x - 1) * 11 + (y - 'a')
+ * 
+ * @author Daniel Centore
+ *
+ */
+class BoardTopology
+{
+	public static final int SIZE = 11;
+	public static final int CELLS = SIZE * SIZE;
+
+	// Offsets of the neighbors and two-chain partners, in the same order as we've always listed them
+	static final int[] NEIGHBOR_DX = { 0, 1, 1, 0, -1, -1 };
+	static final int[] NEIGHBOR_DY = { -1, -1, 0, 1, 1, 0 };
+	static final int[] BRIDGE_DX = { 1, 2, 1, -1, -2, -1 };
+	static final int[] BRIDGE_DY = { -2, -1, 1, 2, 1, -1 };
+
+	private static final HexPoint[] POINTS = new HexPoint[CELLS];
+	private static final List<List<HexPoint>> TOUCHING = new ArrayList<List<HexPoint>>(CELLS);
+	private static final List<List<HexPoint>> TWO_CHAINS = new ArrayList<List<HexPoint>>(CELLS);
+	private static final List<List<HexPoint>> COMMON = new ArrayList<List<HexPoint>>(CELLS * CELLS);
+
+	/**
+	 * Neighbor cells of each cell
+	 */
+	static final int[][] NEIGHBORS = new int[CELLS][];
+
+	/**
+	 * Two-chain partner cells of each cell
+	 */
+	static final int[][] BRIDGES = new int[CELLS][];
+
+	/**
+	 * The two cells carrying each two-chain: CARRIERS[cell][i] goes with BRIDGES[cell][i]
+	 */
+	static final int[][][] CARRIERS = new int[CELLS][][];
+
+	/**
+	 * The order we walk the board in. This is the order a HashMap keyed by {@link HexPoint} hands the
+	 * points out in, which a lot of our "take the first one that works" logic was tuned against.
+	 */
+	static final int[] ORDER = new int[CELLS];
+
+	static
+	{
+		for (int cell = 0; cell < CELLS; cell++)
+			POINTS[cell] = new HexPoint(cell / SIZE + 1, (char) ('a' + cell % SIZE));
+
+		for (int cell = 0; cell < CELLS; cell++)
+		{
+			HexPoint p = POINTS[cell];
+			TOUCHING.add(onBoard(NEIGHBOR_DX, NEIGHBOR_DY, p.getX(), p.getY()));
+			TWO_CHAINS.add(onBoard(BRIDGE_DX, BRIDGE_DY, p.getX(), p.getY()));
+			NEIGHBORS[cell] = cells(TOUCHING.get(cell));
+			BRIDGES[cell] = cells(TWO_CHAINS.get(cell));
+		}
+
+		List<HexPoint> none = Collections.emptyList();
+		for (int a = 0; a < CELLS; a++)
+		{
+			for (int b = 0; b < CELLS; b++)
+			{
+				List<HexPoint> result = new ArrayList<HexPoint>(2);
+				for (HexPoint h : TOUCHING.get(a))
+				{
+					if (TOUCHING.get(b).contains(h))
+						result.add(h);
+				}
+				COMMON.add(result.isEmpty() ? none : Collections.unmodifiableList(result));
+			}
+		}
+
+		for (int cell = 0; cell < CELLS; cell++)
+		{
+			CARRIERS[cell] = new int[BRIDGES[cell].length][];
+			for (int i = 0; i < BRIDGES[cell].length; i++)
+				CARRIERS[cell][i] = cells(common(cell, BRIDGES[cell][i]));
+		}
+
+		Map<HexPoint, Integer> legacy = new HashMap<HexPoint, Integer>();
+		for (int cell = 0; cell < CELLS; cell++)
+			legacy.put(POINTS[cell], cell);
+		int i = 0;
+		for (Integer cell : legacy.values())
+			ORDER[i++] = cell;
+	}
+
+	/**
+	 * Gets the cell index of a location
+	 * @param x The row
+	 * @param y The column
+	 * @return The index, or -1 if it's off the board
+	 */
+	static int cell(int x, char y)
+	{
+		int col = y - 'a';
+		if (x < 1 || x > SIZE || col < 0 || col >= SIZE)
+			return -1;
+
+		return (x - 1) * SIZE + col;
+	}
+
+	/**
+	 * Gets the shared {@link HexPoint} of a cell
+	 * @param cell The cell index
+	 * @return The point
+	 */
+	static HexPoint point(int cell)
+	{
+		return POINTS[cell];
+	}
+
+	/**
+	 * Gets the points touching a cell
+	 * @param cell The cell index
+	 * @return An unmodifiable {@link List}
+	 */
+	static List<HexPoint> touching(int cell)
+	{
+		return TOUCHING.get(cell);
+	}
+
+	/**
+	 * Gets the points which make a two-chain with a cell
+	 * @param cell The cell index
+	 * @return An unmodifiable {@link List}
+	 */
+	static List<HexPoint> twoChains(int cell)
+	{
+		return TWO_CHAINS.get(cell);
+	}
+
+	/**
+	 * Gets the points touching both of two cells
+	 * @param a The first cell index
+	 * @param b The second cell index
+	 * @return An unmodifiable {@link List}
+	 */
+	static List<HexPoint> common(int a, int b)
+	{
+		return COMMON.get(a * CELLS + b);
+	}
+
+	/**
+	 * Lists the points at some offsets from a location which are on the board
+	 */
+	static List<HexPoint> onBoard(int[] dx, int[] dy, int x, char y)
+	{
+		List<HexPoint> result = new ArrayList<HexPoint>(dx.length);
+		for (int i = 0; i < dx.length; i++)
+		{
+			int cell = cell(x + dx[i], (char) (y + dy[i]));
+			if (cell >= 0)
+				result.add(POINTS[cell]);
+		}
+
+		return Collections.unmodifiableList(result);
+	}
+
+	private static int[] cells(List<HexPoint> points)
+	{
+		int[] result = new int[points.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = points.get(i).cell();
+
+		return result;
+	}
+}
+
 /**
  * Represents a node of the board.
  * This is dependent on the type of board.
@@ -2232,5 +3741,10 @@ enum Player
 	 * ONLY FOR USE IN DIJKSTRAS SOLVER.
 	 * BASICALLY A KLUDGE
 	 */
-	YOU_BRIDGE
+	YOU_BRIDGE,
+
+	/**
+	 * Represents a spot off the board (nobody can play there)
+	 */
+	WALL
 }
\ No newline at end of file
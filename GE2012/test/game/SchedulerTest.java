@@ -0,0 +1,132 @@
+package game;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Plays out circle method schedules with the games finishing in a
+ * random order, and checks what gets handed out.
+ */
+public class SchedulerTest {
+	private final Random rand = new Random(2012);
+
+	/**
+	 * Runs a tournament of n clients through useRounds.
+	 * @param games How many games each pairing is to play, by home and away client
+	 * @return Every game handed out, in order
+	 */
+	private List<Scheduler.Game> play(int n, int sessions, int [][] games)
+	{
+		Client [] clients = new Client [n];
+		for (int i=0; i<n; i++) {
+			clients[i] = new Client(1, 1, 1, 0);
+			clients[i].sessions = sessions;
+		}
+		int [][] pending = new int [n][];
+		for (int i=0; i<n; i++) {
+			pending[i] = games[i].clone();
+		}
+		Scheduler s = new Scheduler(clients, pending);
+		s.useRounds();
+		List<Scheduler.Game> all = new ArrayList<Scheduler.Game>();
+		List<Scheduler.Game> running = new ArrayList<Scheduler.Game>();
+		for (int c : s.shuffledClients()) {
+			start(s, c, running, all);
+		}
+		while (s.remaining() > 0) {
+			assertFalse("no game going with " + s.remaining() + " left", running.isEmpty());
+			Scheduler.Game g = running.remove(rand.nextInt(running.size()));
+			s.finished(g);
+			start(s, g.h, running, all);
+			start(s, g.a, running, all);
+		}
+		assertTrue(running.isEmpty());
+		return all;
+	}
+	private void start(Scheduler s, int c, List<Scheduler.Game> running, List<Scheduler.Game> all)
+	{
+		Scheduler.Game g;
+		while ((g = s.next(c)) != null) {
+			running.add(g);
+			all.add(g);
+		}
+	}
+	private void check(int n, int sessions, int [][] games)
+	{
+		List<Scheduler.Game> all = play(n, sessions, games);
+		int [][] handed = new int [n][n];
+		Map<Integer, Set<Integer>> inRound = new HashMap<Integer, Set<Integer>>();
+		for (Scheduler.Game g : all) {
+			handed[g.h][g.a]++;
+			assertTrue("game outside the rounds", g.round >= 0);
+			Set<Integer> seen = inRound.get(g.round);
+			if (seen == null) {
+				seen = new HashSet<Integer>();
+				inRound.put(g.round, seen);
+			}
+			assertTrue("client " + g.h + " twice in round " + g.round, seen.add(g.h));
+			assertTrue("client " + g.a + " twice in round " + g.round, seen.add(g.a));
+		}
+		for (int h=0; h<n; h++) {
+			assertArrayEquals("games handed out with " + h + " at home", games[h], handed[h]);
+		}
+	}
+	/**
+	 * @return k games for every pairing, each way round
+	 */
+	private static int [][] everyPair(int n, int k)
+	{
+		int [][] games = new int [n][n];
+		for (int h=0; h<n; h++) {
+			for (int a=0; a<n; a++) {
+				games[h][a] = h == a ? 0 : k;
+			}
+		}
+		return games;
+	}
+	@Test
+	public void evenClients()
+	{
+		for (int n=2; n<=8; n+=2) {
+			check(n, 1, everyPair(n, 1));
+			check(n, 2, everyPair(n, 3));
+		}
+	}
+	@Test
+	public void oddClients()
+	{
+		for (int n=3; n<=9; n+=2) {
+			check(n, 1, everyPair(n, 1));
+			check(n, 2, everyPair(n, 3));
+		}
+	}
+	@Test
+	public void unevenPairings()
+	{
+		for (int n=3; n<=6; n++) {
+			int [][] games = everyPair(n, 2);
+			games[0][1] = 0;
+			games[1][0] = 5;
+			games[n-1][0] = 1;
+			check(n, 1, games);
+			check(n, 2, games);
+		}
+	}
+	@Test
+	public void everyClientInEachFullRound()
+	{
+		// with the same count for every pairing, no round has anyone sitting
+		// out but the bye
+		for (int n=2; n<=7; n++) {
+			Map<Integer, Integer> size = new HashMap<Integer, Integer>();
+			for (Scheduler.Game g : play(n, 1, everyPair(n, 2))) {
+				Integer k = size.get(g.round);
+				size.put(g.round, k == null ? 1 : k + 1);
+			}
+			assertEquals(2 * 2 * (n + n % 2 - 1), size.size());
+			for (int k : size.values()) {
+				assertEquals(n / 2, k);
+			}
+		}
+	}
+}